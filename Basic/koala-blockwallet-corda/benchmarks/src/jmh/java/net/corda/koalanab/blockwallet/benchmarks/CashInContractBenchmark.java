@@ -0,0 +1,40 @@
+package net.corda.koalanab.blockwallet.benchmarks;
+
+import net.corda.core.transactions.LedgerTransaction;
+import net.corda.koalanab.blockwallet.contracts.CashInContract;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of [CashInContract] verifying a cash-in batch of the given size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CashInContractBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    public int outputs;
+
+    private final CashInContract contract = new CashInContract();
+    private LedgerTransaction send;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        send = LedgerFixtures.cashIn(LedgerFixtures.newServices(), outputs);
+    }
+
+    @Benchmark
+    public void verifySend() {
+        contract.verify(send);
+    }
+}
@@ -0,0 +1,37 @@
+package net.corda.koalanab.blockwallet.benchmarks;
+
+import net.corda.core.transactions.LedgerTransaction;
+import net.corda.koalanab.blockwallet.contracts.IOUContract;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of [IOUContract] verifying an IOU issuance. The contract only accepts one output, so there is no size
+ * parameter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class IOUContractBenchmark {
+
+    private final IOUContract contract = new IOUContract();
+    private LedgerTransaction create;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        create = LedgerFixtures.iou(LedgerFixtures.newServices());
+    }
+
+    @Benchmark
+    public void verifyCreate() {
+        contract.verify(create);
+    }
+}
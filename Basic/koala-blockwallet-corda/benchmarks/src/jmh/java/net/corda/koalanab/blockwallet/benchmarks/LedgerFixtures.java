@@ -0,0 +1,139 @@
+package net.corda.koalanab.blockwallet.benchmarks;
+
+import net.corda.core.contracts.Command;
+import net.corda.core.contracts.ReferencedStateAndRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.transactions.LedgerTransaction;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.koalanab.blockwallet.contracts.CashInContract;
+import net.corda.koalanab.blockwallet.contracts.IOUContract;
+import net.corda.koalanab.blockwallet.contracts.KYCContract;
+import net.corda.koalanab.blockwallet.contracts.LoanContract;
+import net.corda.koalanab.blockwallet.states.CashInState;
+import net.corda.koalanab.blockwallet.states.IOUState;
+import net.corda.koalanab.blockwallet.states.KYCState;
+import net.corda.koalanab.blockwallet.states.LoanState;
+import net.corda.testing.core.TestIdentity;
+import net.corda.testing.node.MockServices;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+import static net.corda.testing.node.MockServicesKt.makeTestIdentityService;
+import static net.corda.testing.node.NodeTestUtils.ledger;
+
+/**
+ * Builds the synthetic [LedgerTransaction]s the verify benchmarks run against. Everything here happens in the
+ * benchmark's setup, so only the contract's verify() is measured.
+ */
+final class LedgerFixtures {
+
+    static final TestIdentity LENDER = new TestIdentity(new CordaX500Name("BPI", "Paris", "FR"));
+    static final TestIdentity BORROWER = new TestIdentity(new CordaX500Name("BlockWallet", "New York", "US"));
+    static final TestIdentity NOTARY = new TestIdentity(new CordaX500Name("Notary", "London", "GB"));
+
+    private LedgerFixtures() {
+    }
+
+    static MockServices newServices() {
+        return new MockServices(
+                Arrays.asList("net.corda.koalanab.blockwallet.contracts", "net.corda.koalanab.blockwallet.schema"),
+                LENDER,
+                makeTestIdentityService(LENDER.getIdentity(), BORROWER.getIdentity(), NOTARY.getIdentity()));
+    }
+
+    /** A cash-in batch: one Send command and the given number of cash-in outputs. */
+    static LedgerTransaction cashIn(MockServices services, int outputs) {
+        return inLedger(services, () -> {
+            final TransactionBuilder builder = new TransactionBuilder(NOTARY.getParty())
+                    .addCommand(new Command<>(new CashInContract.Commands.Send(), Arrays.asList(
+                            LENDER.getPublicKey(), BORROWER.getPublicKey())));
+            for (int i = 0; i < outputs; i++) {
+                builder.addOutputState(new CashInState(new UniqueIdentifier(), "AFF-" + i, "WAL-" + i, null,
+                        LENDER.getParty(), BORROWER.getParty(), 10_000L + i), CashInContract.ID);
+            }
+            return builder.toWireTransaction(services).toLedgerTransaction(services);
+        });
+    }
+
+    /** A loan request: one Request command and the given number of new loans, each referencing its KYC. */
+    static LedgerTransaction loanRequest(MockServices services, int outputs) {
+        return inLedger(services, () -> requestBuilder(services, outputs).toWireTransaction(services).toLedgerTransaction(services));
+    }
+
+    /**
+     * A bulk loan decision on the given number of requested loans, approving every other one under Approve and
+     * rejecting the rest under Reject.
+     */
+    static LedgerTransaction loanApprove(MockServices services, int outputs) {
+        return inLedger(services, () -> {
+            // The requested loans must be resolvable as inputs, so record the request first.
+            final SignedTransaction request = services.signInitialTransaction(requestBuilder(services, outputs));
+            services.recordTransactions(request);
+
+            final TransactionBuilder builder = new TransactionBuilder(NOTARY.getParty())
+                    .addCommand(new Command<>(new LoanContract.Commands.Approve(), Arrays.asList(
+                            LENDER.getPublicKey(), BORROWER.getPublicKey())));
+            if (outputs > 1) {
+                builder.addCommand(new Command<>(new LoanContract.Commands.Reject(), Arrays.asList(
+                        LENDER.getPublicKey(), BORROWER.getPublicKey())));
+            }
+            for (int i = 0; i < outputs; i++) {
+                final LoanState input = (LoanState) request.getTx().getOutput(i);
+                builder.addInputState(request.getTx().outRef(i));
+                builder.addOutputState(input.withDecision(i % 2 == 0, "2022-01-01", i % 2 == 0 ? null : "2022-01-01",
+                        "Benchmark decision", "700"), LoanContract.ID);
+            }
+            return builder.toWireTransaction(services).toLedgerTransaction(services);
+        });
+    }
+
+    /** An IOU issuance; the IOU contract only allows a single output. */
+    static LedgerTransaction iou(MockServices services) {
+        return inLedger(services, () -> new TransactionBuilder(NOTARY.getParty())
+                .addCommand(new Command<>(new IOUContract.Commands.Create(), Arrays.asList(
+                        LENDER.getPublicKey(), BORROWER.getPublicKey())))
+                .addOutputState(new IOUState(100, LENDER.getParty(), BORROWER.getParty(), new UniqueIdentifier()), IOUContract.ID)
+                .toWireTransaction(services)
+                .toLedgerTransaction(services));
+    }
+
+    // The KYCs the loans reference must be resolvable, so they are recorded first.
+    private static TransactionBuilder requestBuilder(MockServices services, int outputs) {
+        final TransactionBuilder kycBuilder = new TransactionBuilder(NOTARY.getParty())
+                .addCommand(new Command<>(new KYCContract.Commands.Send(), Arrays.asList(
+                        LENDER.getPublicKey(), BORROWER.getPublicKey())));
+        for (int i = 0; i < outputs; i++) {
+            kycBuilder.addOutputState(new KYCState(new UniqueIdentifier(), 1_000L + i, "Dela Cruz", "Juan", "Santos",
+                    "1990-01-01", "Manila", "Manila", "Pedro", "Maria", "M", "09170000000", "Single", "Filipino",
+                    "Engineer", "5000000", BORROWER.getParty(), LENDER.getParty(), null), KYCContract.ID);
+        }
+        final SignedTransaction kycs = services.signInitialTransaction(kycBuilder);
+        services.recordTransactions(kycs);
+
+        final TransactionBuilder builder = new TransactionBuilder(NOTARY.getParty())
+                .addCommand(new Command<>(new LoanContract.Commands.Request(), Arrays.asList(
+                        LENDER.getPublicKey(), BORROWER.getPublicKey())));
+        for (int i = 0; i < outputs; i++) {
+            final KYCState kyc = (KYCState) kycs.getTx().getOutput(i);
+            builder.addReferenceState(new ReferencedStateAndRef<>(kycs.getTx().<KYCState>outRef(i)));
+            builder.addOutputState(new LoanState(new UniqueIdentifier(), 1_000L + i, "Benchmark", null, "12 months",
+                    "Engineer", null, kyc.getLinearId(), false, null, "2022-01-01", null, null, null, null, null,
+                    LENDER.getParty(), BORROWER.getParty(), 5_000_000L, 2_500_000L), LoanContract.ID);
+        }
+        return builder;
+    }
+
+    // The ledger DSL sets up the serialization environment that building and resolving transactions needs.
+    private static <T> T inLedger(MockServices services, Supplier<T> build) {
+        final Object[] result = new Object[1];
+        ledger(services, l -> {
+            result[0] = build.get();
+            return null;
+        });
+        @SuppressWarnings("unchecked") final T built = (T) result[0];
+        return built;
+    }
+}
@@ -0,0 +1,49 @@
+package net.corda.koalanab.blockwallet.benchmarks;
+
+import net.corda.core.transactions.LedgerTransaction;
+import net.corda.koalanab.blockwallet.contracts.LoanContract;
+import net.corda.testing.node.MockServices;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of [LoanContract] verifying a Request issuing, and an Approve/Reject deciding, the given number of loans.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LoanContractBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    public int outputs;
+
+    private final LoanContract contract = new LoanContract();
+    private LedgerTransaction request;
+    private LedgerTransaction approve;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final MockServices services = LedgerFixtures.newServices();
+        request = LedgerFixtures.loanRequest(services, outputs);
+        approve = LedgerFixtures.loanApprove(services, outputs);
+    }
+
+    @Benchmark
+    public void verifyRequest() {
+        contract.verify(request);
+    }
+
+    @Benchmark
+    public void verifyApprove() {
+        contract.verify(approve);
+    }
+}
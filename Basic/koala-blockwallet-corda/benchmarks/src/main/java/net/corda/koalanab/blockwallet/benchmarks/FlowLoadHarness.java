@@ -0,0 +1,180 @@
+package net.corda.koalanab.blockwallet.benchmarks;
+
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.utilities.ProgressTracker;
+import net.corda.koalanab.blockwallet.flows.CashInWalletFlow;
+import net.corda.koalanab.blockwallet.flows.KYCRequestFlow;
+import net.corda.koalanab.blockwallet.flows.LoanApproveFlow;
+import net.corda.koalanab.blockwallet.flows.LoanPaidFlow;
+import net.corda.koalanab.blockwallet.flows.LoanRequestFlow;
+import net.corda.koalanab.blockwallet.states.KYCState;
+import net.corda.koalanab.blockwallet.states.LoanState;
+import net.corda.testing.node.MockNetwork;
+import net.corda.testing.node.MockNetworkParameters;
+import net.corda.testing.node.StartedMockNode;
+import net.corda.testing.node.TestCordapp;
+import rx.Subscription;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load harness for the blockwallet flows.
+ *
+ * Starts an in-process MockNetwork with a wallet node, a lender node and a notary, then runs harness.concurrency
+ * workers, each driving harness.iterations loan lifecycles: KYC request, loan request, approval, payment and a cash-in.
+ * Prints flows/sec and p50/p95/p99 end-to-end latency per flow, and the same for every ProgressTracker step.
+ *
+ * Run it with ./gradlew :benchmarks:flowLoad -Pconcurrency=8 -Piterations=50.
+ */
+public class FlowLoadHarness {
+
+    private final StartedMockNode walletNode;
+    private final Party lender;
+    private final LatencyRecorder flowLatencies = new LatencyRecorder();
+    private final LatencyRecorder stepLatencies = new LatencyRecorder();
+    private final AtomicLong nextAccountId = new AtomicLong(100_000L);
+
+    private FlowLoadHarness(StartedMockNode walletNode, Party lender) {
+        this.walletNode = walletNode;
+        this.lender = lender;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int concurrency = Integer.getInteger("harness.concurrency", 4);
+        final int iterations = Integer.getInteger("harness.iterations", 25);
+
+        final MockNetwork network = new MockNetwork(new MockNetworkParameters()
+                .withThreadPerNode(true)
+                .withCordappsForAllNodes(Arrays.asList(
+                        TestCordapp.findCordapp("net.corda.koalanab.blockwallet.contracts"),
+                        TestCordapp.findCordapp("net.corda.koalanab.blockwallet.flows"))));
+        try {
+            final StartedMockNode walletNode = network.createPartyNode(new CordaX500Name("BlockWallet", "New York", "US"));
+            final StartedMockNode lenderNode = network.createPartyNode(new CordaX500Name("BPI", "Paris", "FR"));
+            final FlowLoadHarness harness = new FlowLoadHarness(walletNode, lenderNode.getInfo().getLegalIdentities().get(0));
+
+            System.out.printf("Running %d workers x %d loan lifecycles...%n", concurrency, iterations);
+            final double elapsedSeconds = harness.run(concurrency, iterations);
+
+            System.out.printf("%nCompleted %d flows in %.1f s: %.1f flows/sec%n%n",
+                    harness.flowLatencies.totalCount(), elapsedSeconds, harness.flowLatencies.totalCount() / elapsedSeconds);
+            System.out.println(harness.flowLatencies.report("flow", elapsedSeconds));
+            System.out.println(harness.stepLatencies.report("flow / progress tracker step", elapsedSeconds));
+        } finally {
+            network.stopNodes();
+        }
+    }
+
+    private double run(int concurrency, int iterations) throws InterruptedException {
+        final ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        final long start = System.nanoTime();
+        final List<Future<?>> running = new ArrayList<>(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            running.add(workers.submit(() -> {
+                for (int n = 0; n < iterations; n++) {
+                    loanLifecycle();
+                }
+                return null;
+            }));
+        }
+        for (Future<?> worker : running) {
+            try {
+                worker.get();
+            } catch (ExecutionException e) {
+                System.err.println("A worker stopped early: " + e.getCause());
+            }
+        }
+        final long elapsed = System.nanoTime() - start;
+        workers.shutdown();
+        return elapsed / 1_000_000_000.0;
+    }
+
+    private void loanLifecycle() {
+        final long accountId = nextAccountId.getAndIncrement();
+        final SignedTransaction kyc = run("KYCRequestFlow", new KYCRequestFlow.KYCRequestInitiator(
+                accountId, "Dela Cruz", "Juan", "Santos", "1990-01-01", "Manila", "Manila", "Pedro", "Maria",
+                "M", "09170000000", "Single", "Filipino", "Engineer", "5000000", lender));
+        if (kyc == null) return;
+        final UniqueIdentifier kycId = ((KYCState) kyc.getTx().getOutput(0)).getLinearId();
+
+        final SignedTransaction loan = run("LoanRequestFlow", new LoanRequestFlow.LoanRequestInitiator(
+                accountId, "Harness", 5_000_000L, "12 months", "Engineer", 2_500_000L, kycId, lender));
+        if (loan == null) return;
+        final UUID loanId = ((LoanState) loan.getTx().getOutput(0)).getLinearId().getId();
+
+        if (run("LoanApproveFlow", new LoanApproveFlow.LoanApproveInitiator(loanId, true, "Harness approval", "700")) == null) return;
+        run("LoanPaidFlow", new LoanPaidFlow.LoanPaidInitiator(loanId, "Harness payment", new Date().toString()));
+        run("CashInWalletFlow", new CashInWalletFlow.CashInWalletInitiator(
+                "AFF-" + accountId, String.valueOf(accountId), 10_000L, lender));
+    }
+
+    /**
+     * Runs a flow to completion on the wallet node, recording its end-to-end latency and the time spent in each of its
+     * top-level progress tracker steps. Returns null if the flow failed.
+     */
+    private <T> T run(String flowName, FlowLogic<T> flow) {
+        final StepTimer stepTimer = new StepTimer(flowName, flow.getProgressTracker());
+        final long start = System.nanoTime();
+        try {
+            final T result = walletNode.startFlow(flow).get();
+            final long end = System.nanoTime();
+            flowLatencies.record(flowName, end - start);
+            stepTimer.finish(end);
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            flowLatencies.fail(flowName);
+            stepTimer.cancel();
+            return null;
+        }
+    }
+
+    private class StepTimer {
+        private final String flowName;
+        private final Subscription subscription;
+        private ProgressTracker.Step currentStep;
+        private long stepStart;
+
+        StepTimer(String flowName, ProgressTracker tracker) {
+            this.flowName = flowName;
+            this.subscription = tracker == null ? null : tracker.getChanges().subscribe(change -> {
+                // Child trackers (signature collection, finality) report through the same feed; only time our steps.
+                if (change instanceof ProgressTracker.Change.Position && change.getProgressTracker() == tracker) {
+                    stepChanged(((ProgressTracker.Change.Position) change).getNewStep(), System.nanoTime());
+                }
+            });
+        }
+
+        synchronized void stepChanged(ProgressTracker.Step step, long now) {
+            if (currentStep != null && currentStep != ProgressTracker.DONE.INSTANCE) {
+                stepLatencies.record(flowName + " / " + currentStep.getLabel(), now - stepStart);
+            }
+            currentStep = step;
+            stepStart = now;
+        }
+
+        void finish(long end) {
+            stepChanged(ProgressTracker.DONE.INSTANCE, end);
+            cancel();
+        }
+
+        void cancel() {
+            if (subscription != null) subscription.unsubscribe();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package net.corda.koalanab.blockwallet.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects latency samples per key and summarises them as percentiles. Keys are reported in the order they were first
+ * seen, which for the harness is the order of the flows and of their steps.
+ */
+final class LatencyRecorder {
+
+    private final Map<String, List<Long>> samples = new LinkedHashMap<>();
+    private final Map<String, Integer> failures = new LinkedHashMap<>();
+
+    synchronized void record(String key, long nanos) {
+        samples.computeIfAbsent(key, k -> new ArrayList<>()).add(nanos);
+    }
+
+    synchronized void fail(String key) {
+        failures.merge(key, 1, Integer::sum);
+    }
+
+    synchronized int totalCount() {
+        int total = 0;
+        for (List<Long> values : samples.values()) total += values.size();
+        return total;
+    }
+
+    synchronized String report(String keyHeader, double elapsedSeconds) {
+        final StringBuilder out = new StringBuilder();
+        out.append(String.format("%-60s %8s %7s %9s %9s %9s %9s%n",
+                keyHeader, "count", "failed", "per sec", "p50 ms", "p95 ms", "p99 ms"));
+        for (Map.Entry<String, List<Long>> entry : samples.entrySet()) {
+            final List<Long> sorted = new ArrayList<>(entry.getValue());
+            Collections.sort(sorted);
+            out.append(String.format("%-60s %8d %7d %9.1f %9.1f %9.1f %9.1f%n",
+                    entry.getKey(),
+                    sorted.size(),
+                    failures.getOrDefault(entry.getKey(), 0),
+                    sorted.size() / elapsedSeconds,
+                    millis(percentile(sorted, 50)),
+                    millis(percentile(sorted, 95)),
+                    millis(percentile(sorted, 99))));
+        }
+        for (Map.Entry<String, Integer> entry : failures.entrySet()) {
+            if (!samples.containsKey(entry.getKey())) {
+                out.append(String.format("%-60s %8d %7d%n", entry.getKey(), 0, entry.getValue()));
+            }
+        }
+        return out.toString();
+    }
+
+    // Nearest-rank percentile.
+    private static long percentile(List<Long> sorted, int percentile) {
+        final int rank = (int) Math.ceil(percentile / 100.0 * sorted.size());
+        return sorted.get(Math.max(rank, 1) - 1);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
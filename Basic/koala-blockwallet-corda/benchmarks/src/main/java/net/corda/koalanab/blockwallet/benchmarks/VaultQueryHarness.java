@@ -0,0 +1,216 @@
+package net.corda.koalanab.blockwallet.benchmarks;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.contracts.Command;
+import net.corda.core.contracts.CommandData;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.VaultService;
+import net.corda.core.node.services.vault.Builder;
+import net.corda.core.node.services.vault.FieldInfo;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.koalanab.blockwallet.contracts.CashInContract;
+import net.corda.koalanab.blockwallet.contracts.KYCContract;
+import net.corda.koalanab.blockwallet.contracts.LoanContract;
+import net.corda.koalanab.blockwallet.schema.CashInSchemaV1;
+import net.corda.koalanab.blockwallet.schema.KYCSchemaV1;
+import net.corda.koalanab.blockwallet.schema.LoanSchemaV1;
+import net.corda.koalanab.blockwallet.states.CashInState;
+import net.corda.koalanab.blockwallet.states.KYCState;
+import net.corda.koalanab.blockwallet.states.LoanState;
+import net.corda.testing.node.MockNetwork;
+import net.corda.testing.node.MockNetworkParameters;
+import net.corda.testing.node.StartedMockNode;
+import net.corda.testing.node.TestCordapp;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.getField;
+
+/**
+ * Measures how loan, KYC and cash-in lookups scale with the size of the vault.
+ *
+ * Seeds a MockNetwork node's H2 vault in steps (10k, 100k and 1M states of each type by default, see
+ * harness.sizes), and at every step times the full paging scan with an in-memory filter that loan lookups used to do
+ * against the indexed criteria queries the flows use now. Reports p50/p95/p99 latency and the bytes allocated per
+ * query, plus the heap retained by the node after each seeding step.
+ *
+ * Run it with ./gradlew :benchmarks:vaultQuery -Psizes=10000,100000,1000000. The 1M step needs a large heap.
+ */
+public class VaultQueryHarness {
+
+    private static final int SEED_TX_SIZE = 1_000;
+    private static final int SCAN_PAGE_SIZE = 10_000;
+    private static final int LOANS_PER_WALLET = 10;
+
+    private final StartedMockNode node;
+    private final Party us;
+    private final Party counterparty;
+    private final Party notary;
+    private final Random random = new Random(42);
+    // One loan id per seeded transaction, to pick lookup targets from without holding every id in memory.
+    private final List<UUID> sampleLoanIds = new ArrayList<>();
+    private int seeded = 0;
+
+    private VaultQueryHarness(StartedMockNode node, Party counterparty, Party notary) {
+        this.node = node;
+        this.us = node.getInfo().getLegalIdentities().get(0);
+        this.counterparty = counterparty;
+        this.notary = notary;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final String[] sizes = System.getProperty("harness.sizes", "10000,100000,1000000").split(",");
+        final int indexedRuns = Integer.getInteger("harness.indexedRuns", 200);
+        final int scanRuns = Integer.getInteger("harness.scanRuns", 5);
+
+        final MockNetwork network = new MockNetwork(new MockNetworkParameters().withCordappsForAllNodes(Arrays.asList(
+                TestCordapp.findCordapp("net.corda.koalanab.blockwallet.contracts"),
+                TestCordapp.findCordapp("net.corda.koalanab.blockwallet.flows"))));
+        try {
+            final StartedMockNode node = network.createPartyNode(new CordaX500Name("BlockWallet", "New York", "US"));
+            final StartedMockNode lender = network.createPartyNode(new CordaX500Name("BPI", "Paris", "FR"));
+            final VaultQueryHarness harness = new VaultQueryHarness(
+                    node, lender.getInfo().getLegalIdentities().get(0), network.getDefaultNotaryIdentity());
+
+            for (String size : sizes) {
+                harness.seedTo(Integer.parseInt(size.trim()));
+                harness.measure(indexedRuns, scanRuns);
+            }
+        } finally {
+            network.stopNodes();
+        }
+    }
+
+    private void seedTo(int statesPerType) {
+        final long start = System.nanoTime();
+        while (seeded < statesPerType) {
+            final int batch = Math.min(SEED_TX_SIZE, statesPerType - seeded);
+            final int from = seeded;
+            node.transaction(() -> {
+                node.getServices().recordTransactions(loans(from, batch), kycs(from, batch), cashIns(from, batch));
+                return null;
+            });
+            seeded += batch;
+        }
+        System.out.printf("%nSeeded %,d states of each type in %.1f s; heap retained after GC: %,d MB%n",
+                seeded, (System.nanoTime() - start) / 1e9, retainedHeapMegabytes());
+    }
+
+    private void measure(int indexedRuns, int scanRuns) {
+        final VaultService vault = node.getServices().getVaultService();
+        System.out.printf("%-52s %6s %10s %10s %10s %14s%n", "query @ " + seeded, "runs", "p50 ms", "p95 ms", "p99 ms", "alloc KB/query");
+
+        time("loan by linear id: paging scan + filter", scanRuns, () -> {
+            final UUID loanId = randomLoanId();
+            for (int page = 1; ; page++) {
+                final Vault.Page<LoanState> loans = vault.queryBy(LoanState.class,
+                        new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED), new PageSpecification(page, SCAN_PAGE_SIZE));
+                final StateAndRef<LoanState> found = loans.getStates().stream()
+                        .filter(loan -> loan.getState().getData().getLinearId().getId().equals(loanId))
+                        .findAny().orElse(null);
+                if (found != null || loans.getStates().size() < SCAN_PAGE_SIZE) return found;
+            }
+        });
+        time("loan by linear id: LinearStateQueryCriteria", indexedRuns, () -> vault.queryBy(LoanState.class,
+                new QueryCriteria.LinearStateQueryCriteria(null, ImmutableList.of(randomLoanId()), null, Vault.StateStatus.UNCONSUMED)));
+        time("loan by linear id: loan_states.linear_id", indexedRuns, () -> vault.queryBy(LoanState.class,
+                new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(field("linearId", LoanSchemaV1.PersistentLoan.class), randomLoanId()))));
+        time("loans by wallet: loan_states.wallet_account_id", indexedRuns, () -> vault.queryBy(LoanState.class,
+                new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(field("walletAccountId", LoanSchemaV1.PersistentLoan.class),
+                        (long) random.nextInt(seeded) / LOANS_PER_WALLET))));
+        time("kyc by account: kyc_states.account_id", indexedRuns, () -> vault.queryBy(KYCState.class,
+                new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(field("accountId", KYCSchemaV1.PersistentKYC.class),
+                        (long) random.nextInt(seeded)))));
+        time("cash-ins by wallet: cash_in_states.wallet_account", indexedRuns, () -> vault.queryBy(CashInState.class,
+                new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(field("walletAccount", CashInSchemaV1.PersistentCashIn.class),
+                        "WAL-" + random.nextInt(seeded) / LOANS_PER_WALLET))));
+    }
+
+    private void time(String name, int runs, Supplier<?> query) {
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long thread = Thread.currentThread().getId();
+        final long[] nanos = new long[runs];
+        long allocated = 0;
+        for (int i = 0; i < runs; i++) {
+            final long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+            final long start = System.nanoTime();
+            node.transaction(query::get);
+            nanos[i] = System.nanoTime() - start;
+            allocated += threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+        }
+        Arrays.sort(nanos);
+        System.out.printf("%-52s %6d %10.2f %10.2f %10.2f %14,d%n", name, runs,
+                percentile(nanos, 50) / 1e6, percentile(nanos, 95) / 1e6, percentile(nanos, 99) / 1e6, allocated / runs / 1024);
+    }
+
+    private SignedTransaction loans(int from, int count) {
+        final TransactionBuilder builder = builder(new LoanContract.Commands.Request());
+        for (int i = from; i < from + count; i++) {
+            final UniqueIdentifier linearId = new UniqueIdentifier();
+            if (i == from) sampleLoanIds.add(linearId.getId());
+            builder.addOutputState(new LoanState(linearId, (long) i / LOANS_PER_WALLET, "Seed", null, "12 months",
+                    "Engineer", null, new UniqueIdentifier(), false, null, "2022-01-01", null, null, null, null, null,
+                    us, counterparty, 5_000_000L, 2_500_000L), LoanContract.ID);
+        }
+        return node.getServices().signInitialTransaction(builder);
+    }
+
+    private SignedTransaction kycs(int from, int count) {
+        final TransactionBuilder builder = builder(new KYCContract.Commands.Send());
+        for (int i = from; i < from + count; i++) {
+            builder.addOutputState(new KYCState(new UniqueIdentifier(), i, "Dela Cruz", "Juan", "Santos", "1990-01-01",
+                    "Manila", "Manila", "Pedro", "Maria", "M", "09170000000", "Single", "Filipino", "Engineer", "5000000",
+                    us, counterparty, null), KYCContract.ID);
+        }
+        return node.getServices().signInitialTransaction(builder);
+    }
+
+    private SignedTransaction cashIns(int from, int count) {
+        final TransactionBuilder builder = builder(new CashInContract.Commands.Send());
+        for (int i = from; i < from + count; i++) {
+            builder.addOutputState(new CashInState(new UniqueIdentifier(), "AFF-" + i, "WAL-" + i / LOANS_PER_WALLET, null,
+                    us, counterparty, 10_000L), CashInContract.ID);
+        }
+        return node.getServices().signInitialTransaction(builder);
+    }
+
+    // Seeded transactions are recorded directly, without verification or notarisation: only the vault's contents matter.
+    private TransactionBuilder builder(CommandData command) {
+        return new TransactionBuilder(notary).addCommand(new Command<>(command, us.getOwningKey()));
+    }
+
+    private UUID randomLoanId() {
+        return sampleLoanIds.get(random.nextInt(sampleLoanIds.size()));
+    }
+
+    private static FieldInfo field(String name, Class<?> entity) {
+        try {
+            return getField(name, entity);
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        final int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    private static long retainedHeapMegabytes() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / (1024 * 1024);
+    }
+}
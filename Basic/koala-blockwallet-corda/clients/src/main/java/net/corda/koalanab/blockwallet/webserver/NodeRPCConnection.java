@@ -0,0 +1,63 @@
+package net.corda.koalanab.blockwallet.webserver;
+
+import net.corda.client.rpc.CordaRPCClient;
+import net.corda.client.rpc.CordaRPCConnection;
+import net.corda.client.rpc.GracefulReconnect;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.utilities.NetworkHostAndPort;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Wraps an RPC connection to a Corda node.
+ *
+ * The RPC connection is configured using command line arguments. It reconnects to the node by itself whenever the
+ * connection drops; components that must know about the gap register with [onReconnect].
+ */
+@Component
+public class NodeRPCConnection implements AutoCloseable {
+    // The host of the node we are connecting to.
+    @Value("${config.rpc.host}")
+    private String host;
+    // The RPC port of the node we are connecting to.
+    @Value("${config.rpc.port}")
+    private int rpcPort;
+    // The username for logging into the RPC client.
+    @Value("${config.rpc.username}")
+    private String username;
+    // The password for logging into the RPC client.
+    @Value("${config.rpc.password}")
+    private String password;
+
+    private CordaRPCConnection rpcConnection;
+    CordaRPCOps proxy;
+    private final List<Runnable> reconnectListeners = new CopyOnWriteArrayList<>();
+
+    @PostConstruct
+    public void initialiseNodeRPCConnection() {
+        NetworkHostAndPort rpcAddress = new NetworkHostAndPort(host, rpcPort);
+        CordaRPCClient rpcClient = new CordaRPCClient(rpcAddress);
+        // Retries forever; calls made while the node is unreachable wait for the reconnect.
+        GracefulReconnect gracefulReconnect = new GracefulReconnect(() -> { }, () -> reconnectListeners.forEach(Runnable::run), -1);
+        rpcConnection = rpcClient.start(username, password, gracefulReconnect);
+        proxy = rpcConnection.getProxy();
+    }
+
+    /**
+     * Runs the listener every time the connection to the node is re-established after a drop. Whatever the node
+     * published while the connection was down is lost.
+     */
+    void onReconnect(Runnable listener) {
+        reconnectListeners.add(listener);
+    }
+
+    @PreDestroy
+    public void close() {
+        rpcConnection.notifyServerAndClose();
+    }
+}
@@ -0,0 +1,77 @@
+package net.corda.koalanab.blockwallet.webserver;
+
+/**
+ * A loan or cash-in status change, as streamed to the wallet's subscribers. Serialised to JSON as the data of a
+ * server-sent event named after its type.
+ */
+public class StatusEvent {
+
+    public enum Type {
+        CREATED,
+        APPROVED,
+        REJECTED,
+        PAID;
+
+        public String eventName() {
+            return name().toLowerCase();
+        }
+    }
+
+    private final Type type;
+    private final String stateType;
+    private final String id;
+    private final String walletAccountId;
+    private final Long amountMinor;
+    private final String transactionId;
+    private final int outputIndex;
+
+    public StatusEvent(Type type, String stateType, String id, String walletAccountId, Long amountMinor,
+                       String transactionId, int outputIndex) {
+        this.type = type;
+        this.stateType = stateType;
+        this.id = id;
+        this.walletAccountId = walletAccountId;
+        this.amountMinor = amountMinor;
+        this.transactionId = transactionId;
+        this.outputIndex = outputIndex;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /** "loan" or "cash-in". */
+    public String getStateType() {
+        return stateType;
+    }
+
+    /** The linear id of the loan or cash-in. */
+    public String getId() {
+        return id;
+    }
+
+    public String getWalletAccountId() {
+        return walletAccountId;
+    }
+
+    /** The amount in minor units; null for a legacy loan or cash-in whose amount is not a valid amount. */
+    public Long getAmountMinor() {
+        return amountMinor;
+    }
+
+    public String getTransactionId() {
+        return transactionId;
+    }
+
+    /** The index of the loan or cash-in among the outputs of its transaction. */
+    public int getOutputIndex() {
+        return outputIndex;
+    }
+
+    /**
+     * The id of the server-sent event, unique to the state: a batch transaction produces several events.
+     */
+    public String getEventId() {
+        return transactionId + ":" + outputIndex;
+    }
+}
@@ -0,0 +1,34 @@
+package net.corda.koalanab.blockwallet.webserver;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Pushes loan and cash-in status changes to the front end as server-sent events, in place of polling the node.
+ */
+@RestController
+@RequestMapping("/events")
+public class StatusEventController {
+
+    private final StatusEventStream statusEvents;
+
+    public StatusEventController(StatusEventStream statusEvents) {
+        this.statusEvents = statusEvents;
+    }
+
+    /**
+     * Streams the created, approved, rejected and paid events of one wallet account's loans and cash-ins. Each event
+     * is named after its type and carries a [StatusEvent] as JSON. A client that reconnects with Last-Event-ID is sent
+     * the events it missed, or a reset event if they are no longer known.
+     */
+    @GetMapping(value = "/wallets/{walletAccountId}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter walletEvents(@PathVariable String walletAccountId,
+                                   @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        return statusEvents.subscribe(walletAccountId, lastEventId);
+    }
+}
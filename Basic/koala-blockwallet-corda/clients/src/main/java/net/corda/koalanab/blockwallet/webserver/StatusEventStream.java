@@ -0,0 +1,241 @@
+package net.corda.koalanab.blockwallet.webserver;
+
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.koalanab.blockwallet.states.CashInState;
+import net.corda.koalanab.blockwallet.states.LoanState;
+import net.corda.koalanab.blockwallet.states.LoanStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import rx.Subscription;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Turns the node's LoanState and CashInState vault updates into [StatusEvent]s and pushes them to the server-sent
+ * event subscribers of the wallet each event belongs to.
+ *
+ * There is one vault feed per state type for the whole web server, however many clients are subscribed, and events
+ * are filtered by wallet account here rather than by the clients. Only changes are streamed: a client reads the
+ * current state once through the query flows and then follows this stream.
+ *
+ * Each event's id is its state's transaction id and output index. The last config.events.replay-size (10000) events
+ * are kept, so that a client that reconnects with Last-Event-ID is sent the events of its wallet it missed. If that id
+ * is no longer known, e.g. after the web server restarted, the client is sent a reset event instead and must read the
+ * current state again. The same happens to every subscriber when the RPC connection to the node was lost for a while:
+ * the feeds are subscribed again once it is back, but what the node recorded in between was never streamed. If a
+ * feed fails for good, every subscription is completed.
+ */
+@Component
+public class StatusEventStream {
+
+    private static final Logger logger = LoggerFactory.getLogger(StatusEventStream.class);
+
+    private final NodeRPCConnection rpc;
+    // How long a subscription stays open; zero keeps it open until the client disconnects.
+    @Value("${config.events.timeout-ms:0}")
+    private long emitterTimeoutMillis;
+    @Value("${config.events.replay-size:10000}")
+    private int replaySize;
+
+    private final ConcurrentHashMap<String, Set<SseEmitter>> subscribersByWallet = new ConcurrentHashMap<>();
+    // Only touched on the dispatcher.
+    private final List<Subscription> feeds = new ArrayList<>();
+    private final Deque<StatusEvent> recent = new ArrayDeque<>();
+    // Sends happen off the RPC thread, so a slow client cannot hold up the vault feed.
+    private final ExecutorService dispatcher = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "status-event-dispatch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public StatusEventStream(NodeRPCConnection rpc) {
+        this.rpc = rpc;
+    }
+
+    @PostConstruct
+    public void start() {
+        rpc.onReconnect(() -> dispatcher.execute(this::onReconnect));
+        dispatcher.execute(this::subscribeFeeds);
+    }
+
+    @PreDestroy
+    public void stop() {
+        dispatcher.execute(() -> feeds.forEach(Subscription::unsubscribe));
+        dispatcher.shutdown();
+        subscribersByWallet.values().forEach(emitters -> emitters.forEach(SseEmitter::complete));
+    }
+
+    /**
+     * Opens a stream of the status changes of one wallet account's loans and cash-ins. lastEventId is the id of the
+     * last event a reconnecting client received, or null.
+     */
+    public SseEmitter subscribe(String walletAccountId, String lastEventId) {
+        final SseEmitter emitter = new SseEmitter(emitterTimeoutMillis);
+        final Runnable unsubscribe = () -> remove(walletAccountId, emitter);
+        emitter.onCompletion(unsubscribe);
+        emitter.onTimeout(unsubscribe);
+        // On the dispatcher, so that no event is published between the replay and the registration.
+        dispatcher.execute(() -> {
+            if (lastEventId != null && !replay(walletAccountId, lastEventId, emitter)) {
+                return;
+            }
+            subscribersByWallet.compute(walletAccountId, (id, emitters) -> {
+                final Set<SseEmitter> subscribed = emitters != null ? emitters : ConcurrentHashMap.newKeySet();
+                subscribed.add(emitter);
+                return subscribed;
+            });
+        });
+        return emitter;
+    }
+
+    // Subscribes both feeds afresh, dropping the ones they replace.
+    private void subscribeFeeds() {
+        feeds.forEach(Subscription::unsubscribe);
+        feeds.clear();
+        final CordaRPCOps proxy = rpc.proxy;
+        // Consumed loans are needed to tell a decision from a payment; the snapshot itself is not used.
+        final QueryCriteria allStates = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.ALL);
+        final PageSpecification snapshotPage = new PageSpecification(1, 1);
+
+        feeds.add(proxy.vaultTrackByWithPagingSpec(LoanState.class, allStates, snapshotPage).getUpdates().subscribe(
+                update -> dispatcher.execute(() -> onLoanUpdate(update)),
+                error -> onFeedError("loan", error)));
+        feeds.add(proxy.vaultTrackByWithPagingSpec(CashInState.class, allStates, snapshotPage).getUpdates().subscribe(
+                update -> dispatcher.execute(() -> onCashInUpdate(update)),
+                error -> onFeedError("cash-in", error)));
+    }
+
+    private void onReconnect() {
+        logger.warn("Reconnected to the node; status events recorded while disconnected were missed.");
+        subscribeFeeds();
+        // The missed events are not in the replay buffer either, so no client can catch up from it any more.
+        recent.clear();
+        subscribersByWallet.forEach((walletAccountId, emitters) -> emitters.forEach(emitter -> reset(walletAccountId, emitter)));
+    }
+
+    private void onFeedError(String stateType, Throwable error) {
+        logger.error("Status event stream lost the " + stateType + " update feed.", error);
+        // Clients reconnect by themselves; ending their streams tells them this one is over.
+        dispatcher.execute(() -> {
+            recent.clear();
+            subscribersByWallet.values().forEach(emitters -> emitters.forEach(SseEmitter::complete));
+            subscribersByWallet.clear();
+        });
+    }
+
+    // Sends the wallet's events after lastEventId, or a reset if that id is not in the buffer. False if the client went away.
+    private boolean replay(String walletAccountId, String lastEventId, SseEmitter emitter) {
+        boolean found = false;
+        for (StatusEvent event : recent) {
+            if (found && event.getWalletAccountId().equals(walletAccountId) && !send(walletAccountId, emitter, event)) {
+                return false;
+            }
+            found = found || event.getEventId().equals(lastEventId);
+        }
+        return found || reset(walletAccountId, emitter);
+    }
+
+    private void onLoanUpdate(Vault.Update<LoanState> update) {
+        final Map<UUID, LoanStatus> consumed = new HashMap<>();
+        for (StateAndRef<LoanState> loan : update.getConsumed()) {
+            consumed.put(loan.getState().getData().getLinearId().getId(), LoanStatus.of(loan.getState().getData()));
+        }
+        for (StateAndRef<LoanState> produced : update.getProduced()) {
+            final LoanState loan = produced.getState().getData();
+            final LoanStatus before = consumed.get(loan.getLinearId().getId());
+            final LoanStatus after = LoanStatus.of(loan);
+            final StatusEvent.Type type;
+            if (before == null) {
+                type = StatusEvent.Type.CREATED;
+            } else if (before == after) {
+                continue;
+            } else if (after == LoanStatus.APPROVED) {
+                type = StatusEvent.Type.APPROVED;
+            } else if (after == LoanStatus.REJECTED) {
+                type = StatusEvent.Type.REJECTED;
+            } else if (after == LoanStatus.PAID) {
+                type = StatusEvent.Type.PAID;
+            } else {
+                continue;
+            }
+            final Long amountMinor = loan.isAmountReadable() ? loan.getAmountInMinorUnits() : null;
+            publish(new StatusEvent(type, "loan", loan.getLinearId().getId().toString(),
+                    String.valueOf(loan.getWalletAccountId()), amountMinor,
+                    produced.getRef().getTxhash().toString(), produced.getRef().getIndex()));
+        }
+    }
+
+    private void onCashInUpdate(Vault.Update<CashInState> update) {
+        for (StateAndRef<CashInState> produced : update.getProduced()) {
+            final CashInState cashIn = produced.getState().getData();
+            final Long amountMinor = cashIn.isAmountReadable() ? cashIn.getAmountInMinorUnits() : null;
+            publish(new StatusEvent(StatusEvent.Type.CREATED, "cash-in", cashIn.getLinearId().getId().toString(),
+                    cashIn.getWalletAccount(), amountMinor, produced.getRef().getTxhash().toString(),
+                    produced.getRef().getIndex()));
+        }
+    }
+
+    private void publish(StatusEvent event) {
+        recent.addLast(event);
+        while (recent.size() > replaySize) {
+            recent.removeFirst();
+        }
+        final Set<SseEmitter> emitters = subscribersByWallet.get(event.getWalletAccountId());
+        if (emitters == null) return;
+        for (SseEmitter emitter : emitters) {
+            send(event.getWalletAccountId(), emitter, event);
+        }
+    }
+
+    private boolean send(String walletAccountId, SseEmitter emitter, StatusEvent event) {
+        return send(walletAccountId, emitter, SseEmitter.event()
+                .id(event.getEventId())
+                .name(event.getType().eventName())
+                .data(event, MediaType.APPLICATION_JSON));
+    }
+
+    // Tells the client to read the current state again, as it missed events.
+    private boolean reset(String walletAccountId, SseEmitter emitter) {
+        return send(walletAccountId, emitter, SseEmitter.event().name("reset").data(""));
+    }
+
+    private boolean send(String walletAccountId, SseEmitter emitter, SseEmitter.SseEventBuilder event) {
+        try {
+            emitter.send(event);
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            // The client went away; drop it.
+            remove(walletAccountId, emitter);
+            emitter.completeWithError(e);
+            return false;
+        }
+    }
+
+    private void remove(String walletAccountId, SseEmitter emitter) {
+        subscribersByWallet.computeIfPresent(walletAccountId, (id, emitters) -> {
+            emitters.remove(emitter);
+            return emitters.isEmpty() ? null : emitters;
+        });
+    }
+}
@@ -1,16 +1,16 @@
 package net.corda.koalanab.blockwallet.contracts;
 
 import net.corda.koalanab.blockwallet.states.CashInState;
+import net.corda.core.contracts.Command;
 import net.corda.core.contracts.CommandData;
-import net.corda.core.contracts.CommandWithParties;
 import net.corda.core.contracts.Contract;
-import net.corda.core.identity.AbstractParty;
+import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.transactions.LedgerTransaction;
 
-import java.util.stream.Collectors;
+import java.security.PublicKey;
+import java.util.List;
 
 import static net.corda.core.contracts.ContractsDSL.requireThat;
-import static net.corda.core.contracts.ContractsDSL.requireSingleCommand;
 
 // ************
 // * Contract *
@@ -21,35 +21,44 @@ public class CashInContract implements Contract {
 
     // A transaction is valid if the verify() function of the contract of all the transaction's input and output states
     // does not throw an exception.
+    //
+    // Cash-ins are grouped by linear id and verified in a single pass, so one transaction can issue any number of them.
+    // Their lifecycle has a single step: each cash-in is issued, under Send, and never consumed.
     @Override
     public void verify(LedgerTransaction tx) {
+        final List<Command<Commands>> commands = tx.commandsOfType(Commands.class);
+        final List<LedgerTransaction.InOutGroup<CashInState, UniqueIdentifier>> groups =
+                tx.groupStates(CashInState.class, CashInState::getLinearId);
 
-        /* We can use the requireSingleCommand function to extract command data from transaction.
-         * However, it is possible to have multiple commands in a signle transaction.*/
-        //final CommandWithParties<Commands> command = requireSingleCommand(tx.getCommands(), Commands.class);
-        final CommandData commandData = tx.getCommands().get(0).getValue();
+        //Using Corda DSL function requireThat to replicate conditions-checks
+        requireThat(require -> {
+            require.using("A transaction can carry a single cash-in command.", commands.size() == 1);
+            final Command<Commands> command = commands.get(0);
+            require.using("Cash-ins can only be sent.", command.getValue() instanceof Commands.Send);
+            final List<PublicKey> signers = command.getSigners();
+            require.using("At least one cash-in should be issued.", !groups.isEmpty());
 
-        if (commandData instanceof Commands.Send) {
-            //Retrieve the output state of the transaction
-            CashInState output = tx.outputsOfType(CashInState.class).get(0);
+            for (LedgerTransaction.InOutGroup<CashInState, UniqueIdentifier> group : groups) {
+                require.using("A cash-in is only issued, it cannot be consumed.", group.getInputs().isEmpty());
+                require.using("Each cash-in must be issued once.", group.getOutputs().size() == 1);
+                final CashInState output = group.getOutputs().get(0);
 
-            final CommandWithParties<Commands.Send> command = requireSingleCommand(tx.getCommands(), Commands.Send.class);
-
-            //Using Corda DSL function requireThat to replicate conditions-checks
-            requireThat(require -> {
-                require.using("No inputs should be consumed when issuing an IOU.",tx.getInputs().isEmpty());
                 require.using("The sender and the receiver cannot be the same entity.",
-                        output.getSender() != output.getReceiver());
+                        !output.getSender().equals(output.getReceiver()));
 
                 require.using("All of the participants must be signers.",
-                        command.getSigners().containsAll(output.getParticipants().stream().map(AbstractParty::getOwningKey).collect(Collectors.toList())));
-
-                require.using("No inputs should be consumed when affiliate account is empty", !output.getAffiliateAccount().isEmpty() );
-                require.using("No inputs should be consumed when wallet account is empty", !output.getWalletAccount().isEmpty() );
-//                require.using("No inputs should be consumed when amount is empty", output.getAmount() > 0 );
-                return null;
-            });
-        }
+                        signers.contains(output.getSender().getOwningKey())
+                                && signers.contains(output.getReceiver().getOwningKey()));
+
+                require.using("The affiliate account must be given.",
+                        output.getAffiliateAccount() != null && !output.getAffiliateAccount().isEmpty());
+                require.using("The wallet account must be given.",
+                        output.getWalletAccount() != null && !output.getWalletAccount().isEmpty());
+                require.using("The amount must be given in minor units.", output.getAmountMinor() != null);
+                require.using("The amount must be positive.", output.getAmountMinor() > 0);
+            }
+            return null;
+        });
     }
 
     // Used to indicate the transaction's intent.
@@ -2,9 +2,16 @@ package net.corda.koalanab.blockwallet.contracts;
 
 import net.corda.koalanab.blockwallet.states.KYCState;
 import net.corda.core.contracts.CommandData;
+import net.corda.core.contracts.CommandWithParties;
 import net.corda.core.contracts.Contract;
 import net.corda.core.transactions.LedgerTransaction;
 
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import static net.corda.core.contracts.ContractsDSL.requireSingleCommand;
 import static net.corda.core.contracts.ContractsDSL.requireThat;
 
 // ************
@@ -18,23 +25,45 @@ public class KYCContract implements Contract {
     // does not throw an exception.
     @Override
     public void verify(LedgerTransaction tx) {
-//
-//        final CommandData commandData = tx.getCommands().get(0).getValue();
-//
-//        if (commandData instanceof Commands.Send) {
-//            //Retrieve the output state of the transaction
-//            KYCState output = tx.outputsOfType(KYCState.class).get(0);
-//
-//            //Using Corda DSL function requireThat to replicate conditions-checks
-//            requireThat(require -> {
-//                require.using("No inputs should be consumed when lastname is empty", !output.getLastname().isEmpty() );
-//                require.using("No inputs should be consumed when firstname is empty", !output.getFirstname().isEmpty() );
-//                return null;
-//            });
-//        }
+        final CommandWithParties<Commands.Send> command = requireSingleCommand(tx.getCommands(), Commands.Send.class);
+        final List<PublicKey> signers = command.getSigners();
+        final List<KYCState> outputs = tx.outputsOfType(KYCState.class);
+
+        //Using Corda DSL function requireThat to replicate conditions-checks
+        requireThat(require -> {
+            require.using("No inputs should be consumed when sending a KYC.", tx.inputsOfType(KYCState.class).isEmpty());
+            require.using("At least one KYC should be sent.", !outputs.isEmpty());
+
+            for (KYCState output : outputs) {
+                require.using("The sender and the receiver cannot be the same entity.",
+                        !output.getSender().equals(output.getReceiver()));
+                require.using("All of the participants must be signers.",
+                        signers.contains(output.getSender().getOwningKey())
+                                && signers.contains(output.getReceiver().getOwningKey()));
+
+                if (output.hasOffLedgerPayload()) {
+                    // The details live off-ledger; none of them may leak into the transaction.
+                    require.using("An anchored KYC must not carry personal details on-ledger.",
+                            personalDetails(output).stream().allMatch(Objects::isNull));
+                } else {
+                    require.using("No inputs should be consumed when lastname is empty",
+                            output.getLastname() != null && !output.getLastname().isEmpty());
+                    require.using("No inputs should be consumed when firstname is empty",
+                            output.getFirstname() != null && !output.getFirstname().isEmpty());
+                }
+            }
+            return null;
+        });
+    }
+
+    private static List<String> personalDetails(KYCState state) {
+        return Arrays.asList(state.getLastname(), state.getFirstname(), state.getMiddlename(), state.getBirthday(),
+                state.getPermanentAddress(), state.getCurrentAddress(), state.getFathername(), state.getMothername(),
+                state.getGender(), state.getContactNo(), state.getMaritalStatus(), state.getNationality(),
+                state.getOccupation(), state.getIncome());
     }
 
     public interface Commands extends CommandData {
         class Send implements Commands {}
     }
-}
\ No newline at end of file
+}
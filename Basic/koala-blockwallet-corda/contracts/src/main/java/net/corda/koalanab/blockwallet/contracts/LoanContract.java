@@ -1,46 +1,148 @@
 package net.corda.koalanab.blockwallet.contracts;
 
+import net.corda.koalanab.blockwallet.states.KYCState;
 import net.corda.koalanab.blockwallet.states.LoanState;
+import net.corda.koalanab.blockwallet.states.LoanStatus;
+import net.corda.core.contracts.Command;
 import net.corda.core.contracts.CommandData;
 import net.corda.core.contracts.Contract;
+import net.corda.core.contracts.Requirements;
+import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.transactions.LedgerTransaction;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
 import static net.corda.core.contracts.ContractsDSL.requireThat;
 
+/**
+ * Verifies every loan of a transaction in a single pass over its groups of loan states by linear id, so that one
+ * transaction can carry any number of loans. Each loan must take one step of its lifecycle, under that step's command:
+ *
+ * - Request: issues a new loan, which references its borrower's KYC;
+ * - Approve or Reject: records the lender's decision on a requested loan;
+ * - Paid: records the repayment of an approved loan.
+ *
+ * Both parties of a loan must sign the command of its step, and a transaction may carry each command at most once and
+ * only for a step that one of its loans takes.
+ */
 public class LoanContract implements Contract {
     public static final String ID = "net.corda.koalanab.blockwallet.contracts.LoanContract";
 
     @Override
     public void verify(LedgerTransaction tx) {
+        final List<Command<Commands>> commands = tx.commandsOfType(Commands.class);
+        final List<LedgerTransaction.InOutGroup<LoanState, UniqueIdentifier>> groups =
+                tx.groupStates(LoanState.class, LoanState::getLinearId);
+        // New loans carry the borrower's KYC as a reference input, so the lender sees it in the same transaction.
+        final Set<UniqueIdentifier> referencedKycs = tx.referenceInputsOfType(KYCState.class).stream()
+                .map(KYCState::getLinearId)
+                .collect(Collectors.toSet());
+
+        //Using Corda DSL function requireThat to replicate conditions-checks
+        requireThat(require -> {
+            final Map<Class<?>, Command<Commands>> commandsByStep = new HashMap<>();
+            for (Command<Commands> command : commands) {
+                require.using("A transaction can carry each loan command only once.",
+                        commandsByStep.put(command.getValue().getClass(), command) == null);
+            }
+            require.using("At least one loan should be part of the transaction.", !groups.isEmpty());
+
+            final Set<Class<?>> steps = new HashSet<>();
+            for (LedgerTransaction.InOutGroup<LoanState, UniqueIdentifier> group : groups) {
+                final Class<? extends Commands> step = verifyStep(require, group, referencedKycs);
+                final Command<Commands> command = commandsByStep.get(step);
+                require.using("Each loan must be covered by the command of its step, " + step.getSimpleName() + ".",
+                        command != null);
+                final LoanState loan = group.getOutputs().isEmpty() ? group.getInputs().get(0) : group.getOutputs().get(0);
+                require.using("All of the participants must be signers.",
+                        command.getSigners().contains(loan.getSender().getOwningKey())
+                                && command.getSigners().contains(loan.getReceiver().getOwningKey()));
+                steps.add(step);
+            }
+            require.using("Every loan command must be used by at least one loan.", steps.equals(commandsByStep.keySet()));
+            return null;
+        });
+    }
+
+    // Checks one loan's step and returns the command the step must be taken under.
+    private static Class<? extends Commands> verifyStep(
+            Requirements require, LedgerTransaction.InOutGroup<LoanState, UniqueIdentifier> group,
+            Set<UniqueIdentifier> referencedKycs) {
+        final List<LoanState> inputs = group.getInputs();
+        final List<LoanState> outputs = group.getOutputs();
+        require.using("A transaction can consume and produce each loan at most once.",
+                inputs.size() <= 1 && outputs.size() <= 1);
+        if (inputs.isEmpty()) {
+            final LoanState output = outputs.get(0);
+            // Only new loans must be in minor units; a legacy loan keeps its string amounts, see [requireSameTerms].
+            require.using("The amount must be given in minor units.", output.getAmountMinor() != null);
+            require.using("The gross income must be given in minor units.", output.getGrossIncomeMinor() != null);
+            require.using("A new loan must be requested, not decided.", LoanStatus.of(output) == LoanStatus.REQUESTED);
+            require.using("The amount must be positive.", output.getAmountMinor() > 0);
+            require.using("The gross income cannot be negative.", output.getGrossIncomeMinor() >= 0);
+            require.using("A new loan must reference the KYC it was requested with.",
+                    output.getKycId() != null && referencedKycs.contains(output.getKycId()));
+            return Commands.Request.class;
+        }
+
+        require.using("A loan cannot leave the ledger.", !outputs.isEmpty());
+
+        final LoanState input = inputs.get(0);
+        final LoanState output = outputs.get(0);
+        requireSameTerms(require, input, output);
 
-        final CommandData commandData = tx.getCommands().get(0).getValue();
-
-        if (commandData instanceof Commands.Request) {
-            LoanState output = tx.outputsOfType(LoanState.class).get(0);
-
-            //Using Corda DSL function requireThat to replicate conditions-checks
-            requireThat(require -> {
-//                require.using("No inputs should be consumed when amount is empty", output.getAmount()>0);
-//                require.using("No inputs should be consumed when maximum load amount is greater than 100,000", output.getAmount()<100000);
-                return null;
-            });
-        } else if (commandData instanceof Commands.Approve) {
-            LoanState output = tx.outputsOfType(LoanState.class).get(0);
-
-            //Using Corda DSL function requireThat to replicate conditions-checks
-            requireThat(require -> {
-                require.using("No inputs should be consumed when remarks empty", !output.getRemarks().isEmpty());
-                if (output.isApproved())
-                    require.using("No inputs should be consumed when approve date is null", output.getDateApproved() != null);
-                else
-                    require.using("No inputs should be consumed when approve date is null", output.getDateRejected() != null);
-                return null;
-            });
+        final LoanStatus from = LoanStatus.of(input);
+        final LoanStatus to = LoanStatus.of(output);
+        if (from == LoanStatus.REQUESTED && (to == LoanStatus.APPROVED || to == LoanStatus.REJECTED)) {
+            require.using("No inputs should be consumed when remarks empty",
+                    output.getRemarks() != null && !output.getRemarks().isEmpty());
+            if (to == LoanStatus.APPROVED) {
+                require.using("No inputs should be consumed when approve date is null", output.getDateApproved() != null);
+                return Commands.Approve.class;
+            }
+            return Commands.Reject.class;
         }
+        // Every other step is illegal, e.g. paying a rejected loan or paying a loan twice.
+        require.using("A loan cannot go from " + from + " to " + to + ".",
+                from == LoanStatus.APPROVED && to == LoanStatus.PAID);
+        require.using("The decision cannot change once the loan is paid.",
+                output.isApproved()
+                        && Objects.equals(output.getDateApproved(), input.getDateApproved())
+                        && Objects.equals(output.getDateRejected(), input.getDateRejected())
+                        && Objects.equals(output.getRemarks(), input.getRemarks())
+                        && Objects.equals(output.getCreditScore(), input.getCreditScore()));
+        return Commands.Paid.class;
+    }
+
+    // What the borrower requested stays as requested for the whole life of the loan.
+    private static void requireSameTerms(Requirements require, LoanState input, LoanState output) {
+        // Compared as recorded: a legacy loan keeps its string amounts, which need not convert to minor units.
+        require.using("The amount cannot change once requested.",
+                Objects.equals(output.getAmountMinor(), input.getAmountMinor())
+                        && Objects.equals(output.getAmount(), input.getAmount())
+                        && Objects.equals(output.getGrossIncomeMinor(), input.getGrossIncomeMinor())
+                        && Objects.equals(output.getGrossIncome(), input.getGrossIncome()));
+        require.using("The terms of the loan cannot change once requested.",
+                output.getWalletAccountId() == input.getWalletAccountId()
+                        && Objects.equals(output.getPurpose(), input.getPurpose())
+                        && Objects.equals(output.getPaymentTerms(), input.getPaymentTerms())
+                        && Objects.equals(output.getOccupation(), input.getOccupation())
+                        && Objects.equals(output.getKycId(), input.getKycId())
+                        && Objects.equals(output.getDateRequested(), input.getDateRequested()));
+        require.using("The parties of the loan cannot change.",
+                output.getSender().equals(input.getSender()) && output.getReceiver().equals(input.getReceiver()));
     }
 
     public interface Commands extends CommandData {
         class Request implements Commands {}
         class Approve implements Commands {}
+        class Reject implements Commands {}
+        class Paid implements Commands {}
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,72 @@
+package net.corda.koalanab.blockwallet.schema;
+
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+import org.hibernate.annotations.Type;
+
+import javax.annotation.Nullable;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * A CashInState schema. The amount is stored in minor units so it can be summed by the database.
+ */
+public class CashInSchemaV1 extends MappedSchema {
+    public CashInSchemaV1() {
+        super(CashInSchema.class, 1, Arrays.asList(PersistentCashIn.class));
+    }
+
+    @Nullable
+    @Override
+    public String getMigrationResource() {
+        return "cashin.changelog-master";
+    }
+
+    @Entity
+    @Table(name = "cash_in_states", indexes = {
+            @Index(name = "cash_in_wallet_account_idx", columnList = "wallet_account"),
+            @Index(name = "cash_in_affiliate_account_idx", columnList = "affiliate_account")
+    })
+    public static class PersistentCashIn extends PersistentState {
+        @Column(name = "linear_id") @Type(type = "uuid-char") private final UUID linearId;
+        @Column(name = "wallet_account") private final String walletAccount;
+        @Column(name = "affiliate_account") private final String affiliateAccount;
+        @Column(name = "amount") private final long amount;
+
+        public PersistentCashIn(UUID linearId, String walletAccount, String affiliateAccount, long amount) {
+            this.linearId = linearId;
+            this.walletAccount = walletAccount;
+            this.affiliateAccount = affiliateAccount;
+            this.amount = amount;
+        }
+
+        // Default constructor required by hibernate.
+        public PersistentCashIn() {
+            this.linearId = null;
+            this.walletAccount = null;
+            this.affiliateAccount = null;
+            this.amount = 0;
+        }
+
+        public UUID getLinearId() {
+            return linearId;
+        }
+
+        public String getWalletAccount() {
+            return walletAccount;
+        }
+
+        public String getAffiliateAccount() {
+            return affiliateAccount;
+        }
+
+        /** The cash-in amount in minor units. */
+        public long getAmount() {
+            return amount;
+        }
+    }
+}
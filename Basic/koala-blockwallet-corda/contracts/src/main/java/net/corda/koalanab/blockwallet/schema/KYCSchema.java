@@ -0,0 +1,6 @@
+package net.corda.koalanab.blockwallet.schema;
+
+/**
+ * The family of schemas for KYCState.
+ */
+public class KYCSchema { }
@@ -0,0 +1,65 @@
+package net.corda.koalanab.blockwallet.schema;
+
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+import org.hibernate.annotations.Type;
+
+import javax.annotation.Nullable;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * A KYCState schema. Only the lookup keys and the hash of an off-ledger payload are persisted; the personal details
+ * stay in the state itself or in the node-local KYC document store.
+ */
+public class KYCSchemaV1 extends MappedSchema {
+    public KYCSchemaV1() {
+        super(KYCSchema.class, 1, Arrays.asList(PersistentKYC.class));
+    }
+
+    @Nullable
+    @Override
+    public String getMigrationResource() {
+        return "kyc.changelog-master";
+    }
+
+    @Entity
+    @Table(name = "kyc_states", indexes = {
+            @Index(name = "kyc_account_id_idx", columnList = "account_id"),
+            @Index(name = "kyc_linear_id_idx", columnList = "linear_id")
+    })
+    public static class PersistentKYC extends PersistentState {
+        @Column(name = "account_id") private final long accountId;
+        @Column(name = "linear_id") @Type(type = "uuid-char") private final UUID linearId;
+        @Column(name = "payload_hash") private final String payloadHash;
+
+        public PersistentKYC(long accountId, UUID linearId, String payloadHash) {
+            this.accountId = accountId;
+            this.linearId = linearId;
+            this.payloadHash = payloadHash;
+        }
+
+        // Default constructor required by hibernate.
+        public PersistentKYC() {
+            this.accountId = 0;
+            this.linearId = null;
+            this.payloadHash = null;
+        }
+
+        public long getAccountId() {
+            return accountId;
+        }
+
+        public UUID getLinearId() {
+            return linearId;
+        }
+
+        public String getPayloadHash() {
+            return payloadHash;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package net.corda.koalanab.blockwallet.schema;
+
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+import org.hibernate.annotations.Type;
+
+import javax.annotation.Nullable;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * A LoanState schema. The columns the loan flows look loans up by are indexed.
+ */
+public class LoanSchemaV1 extends MappedSchema {
+    public LoanSchemaV1() {
+        super(LoanSchema.class, 1, Arrays.asList(PersistentLoan.class));
+    }
+
+    @Nullable
+    @Override
+    public String getMigrationResource() {
+        return "loan.changelog-master";
+    }
+
+    @Entity
+    @Table(name = "loan_states", indexes = {
+            @Index(name = "loan_linear_id_idx", columnList = "linear_id"),
+            @Index(name = "loan_wallet_account_id_idx", columnList = "wallet_account_id"),
+            @Index(name = "loan_kyc_id_idx", columnList = "kyc_id"),
+            @Index(name = "loan_status_idx", columnList = "status")
+    })
+    public static class PersistentLoan extends PersistentState {
+        @Column(name = "linear_id") @Type(type = "uuid-char") private final UUID linearId;
+        @Column(name = "wallet_account_id") private final long walletAccountId;
+        @Column(name = "kyc_id") @Type(type = "uuid-char") private final UUID kycId;
+        @Column(name = "status") private final String status;
+        @Column(name = "amount", nullable = true) private final Long amount;
+
+        public PersistentLoan(UUID linearId, long walletAccountId, UUID kycId, String status, Long amount) {
+            this.linearId = linearId;
+            this.walletAccountId = walletAccountId;
+            this.kycId = kycId;
+            this.status = status;
+            this.amount = amount;
+        }
+
+        // Default constructor required by hibernate.
+        public PersistentLoan() {
+            this.linearId = null;
+            this.walletAccountId = 0;
+            this.kycId = null;
+            this.status = null;
+            this.amount = null;
+        }
+
+        public UUID getLinearId() {
+            return linearId;
+        }
+
+        public long getWalletAccountId() {
+            return walletAccountId;
+        }
+
+        public UUID getKycId() {
+            return kycId;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        /** The loan amount in minor units; null for a legacy loan whose amount is not a valid amount. */
+        public Long getAmount() {
+            return amount;
+        }
+    }
+}
@@ -1,11 +1,14 @@
 package net.corda.koalanab.blockwallet.states;
 
 import net.corda.koalanab.blockwallet.contracts.CashInContract;
+import net.corda.koalanab.blockwallet.schema.CashInSchemaV1;
 import net.corda.core.contracts.BelongsToContract;
-import net.corda.core.contracts.ContractState;
 import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.identity.AbstractParty;
 import net.corda.core.identity.Party;
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+import net.corda.core.schemas.QueryableState;
 
 import java.util.Arrays;
 import java.util.List;
@@ -16,18 +19,58 @@ import lombok.Getter;
 @Getter
 @AllArgsConstructor
 @BelongsToContract( CashInContract.class)
-public class CashInState implements ContractState {
+public class CashInState implements QueryableState {
 
     private final UniqueIdentifier linearId;
     private final String affiliateAccount;
     private final String walletAccount;
+    /**
+     * The decimal amount of states issued before amounts moved to minor units; null on newer states.
+     */
+    @Deprecated
     private final String amount;
 
     private final Party sender;
     private final Party receiver;
 
+    /**
+     * The amount in minor units. Null only on states issued before this field existed, see [getAmountInMinorUnits].
+     */
+    private final Long amountMinor;
+
     @Override
     public List<AbstractParty> getParticipants() { return Arrays.asList(sender,receiver); }
+
+    /**
+     * The amount in minor units, read from the legacy decimal amount on states that predate [amountMinor].
+     */
+    public long getAmountInMinorUnits() {
+        return amountMinor != null ? amountMinor : MinorUnits.parseLegacy(amount);
+    }
+
+    /**
+     * Whether [getAmountInMinorUnits] can read this cash-in's amount; false only for a legacy cash-in whose amount is
+     * not a valid amount.
+     */
+    public boolean isAmountReadable() {
+        return amountMinor != null || MinorUnits.isValid(amount);
+    }
+
+    @Override public PersistentState generateMappedObject(MappedSchema schema) {
+        if (schema instanceof CashInSchemaV1) {
+            return new CashInSchemaV1.PersistentCashIn(
+                    this.linearId.getId(),
+                    this.walletAccount,
+                    this.affiliateAccount,
+                    getAmountInMinorUnits());
+        } else {
+            throw new IllegalArgumentException("Unrecognised schema " + schema);
+        }
+    }
+
+    @Override public Iterable<MappedSchema> supportedSchemas() {
+        return Arrays.asList(new CashInSchemaV1());
+    }
 }
 
 
@@ -0,0 +1,165 @@
+package net.corda.koalanab.blockwallet.states;
+
+import lombok.Getter;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.serialization.CordaSerializable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+
+/**
+ * The personal details of a KYC, kept off-ledger when a [KYCState] only anchors them by hash.
+ *
+ * The hash is taken over [canonicalBytes], a fixed binary layout that does not depend on any serialization framework,
+ * so both parties (and an auditor) compute the same hash from the same details. The layout includes a random salt
+ * that travels off-ledger with the record: the details are few and easy to guess, and without the salt anyone who
+ * sees the anchored hash, such as the notary or a later recipient of the backchain, could confirm a guess of them.
+ *
+ * Each field is at most [MAX_FIELD_LENGTH] characters long.
+ */
+@Getter
+@CordaSerializable
+public class KYCRecord {
+
+    public static final int MAX_FIELD_LENGTH = 1024;
+    static final int SALT_LENGTH = 16;
+
+    private static final byte FORMAT_VERSION = 2;
+    private static final SecureRandom random = new SecureRandom();
+
+    private final long accountId;
+    private final String lastname;
+    private final String firstname;
+    private final String middlename;
+    private final String birthday;
+    private final String permanentAddress;
+    private final String currentAddress;
+    private final String fathername;
+    private final String mothername;
+    private final String gender;
+    private final String contactNo;
+    private final String maritalStatus;
+    private final String nationality;
+    private final String occupation;
+    private final String income;
+    // Null on the record of an on-ledger KYC, which anchors no hash.
+    private final byte[] salt;
+
+    public KYCRecord(long accountId, String lastname, String firstname, String middlename, String birthday,
+                     String permanentAddress, String currentAddress, String fathername, String mothername,
+                     String gender, String contactNo, String maritalStatus, String nationality, String occupation,
+                     String income, byte[] salt) {
+        this.accountId = accountId;
+        this.lastname = lastname;
+        this.firstname = firstname;
+        this.middlename = middlename;
+        this.birthday = birthday;
+        this.permanentAddress = permanentAddress;
+        this.currentAddress = currentAddress;
+        this.fathername = fathername;
+        this.mothername = mothername;
+        this.gender = gender;
+        this.contactNo = contactNo;
+        this.maritalStatus = maritalStatus;
+        this.nationality = nationality;
+        this.occupation = occupation;
+        this.income = income;
+        this.salt = salt;
+        for (String field : fields()) {
+            if (field != null && field.length() > MAX_FIELD_LENGTH) {
+                throw new IllegalArgumentException("KYC fields are at most " + MAX_FIELD_LENGTH + " characters long.");
+            }
+        }
+        if (salt != null && salt.length != SALT_LENGTH) {
+            throw new IllegalArgumentException("The KYC record salt must be " + SALT_LENGTH + " bytes long.");
+        }
+    }
+
+    /**
+     * A new salt for a record to be anchored by hash.
+     */
+    public static byte[] newSalt() {
+        final byte[] salt = new byte[SALT_LENGTH];
+        random.nextBytes(salt);
+        return salt;
+    }
+
+    /**
+     * The record carried on-ledger by a KYC that predates the off-ledger mode.
+     */
+    public static KYCRecord of(KYCState state) {
+        return new KYCRecord(state.getAccountId(), state.getLastname(), state.getFirstname(), state.getMiddlename(),
+                state.getBirthday(), state.getPermanentAddress(), state.getCurrentAddress(), state.getFathername(),
+                state.getMothername(), state.getGender(), state.getContactNo(), state.getMaritalStatus(),
+                state.getNationality(), state.getOccupation(), state.getIncome(), null);
+    }
+
+    public SecureHash hash() {
+        return SecureHash.sha256(canonicalBytes());
+    }
+
+    public byte[] canonicalBytes() {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(FORMAT_VERSION);
+            out.writeLong(accountId);
+            out.writeBoolean(salt != null);
+            if (salt != null) out.write(salt);
+            for (String field : fields()) {
+                out.writeBoolean(field != null);
+                if (field != null) {
+                    // Length-prefixed UTF-8 rather than writeUTF, which is limited to 64KB.
+                    final byte[] utf8 = field.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(utf8.length);
+                    out.write(utf8);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static KYCRecord fromCanonicalBytes(byte[] canonicalBytes) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(canonicalBytes))) {
+            final byte version = in.readByte();
+            if (version != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unknown KYC record format " + version);
+            }
+            final long accountId = in.readLong();
+            byte[] salt = null;
+            if (in.readBoolean()) {
+                salt = new byte[SALT_LENGTH];
+                in.readFully(salt);
+            }
+            final String[] fields = new String[14];
+            for (int i = 0; i < fields.length; i++) {
+                if (in.readBoolean()) {
+                    final int length = in.readInt();
+                    // A UTF-8 character takes at most four bytes.
+                    if (length < 0 || length > 4 * MAX_FIELD_LENGTH) {
+                        throw new IllegalArgumentException("Malformed KYC record");
+                    }
+                    final byte[] utf8 = new byte[length];
+                    in.readFully(utf8);
+                    fields[i] = new String(utf8, StandardCharsets.UTF_8);
+                }
+            }
+            return new KYCRecord(accountId, fields[0], fields[1], fields[2], fields[3], fields[4], fields[5], fields[6],
+                    fields[7], fields[8], fields[9], fields[10], fields[11], fields[12], fields[13], salt);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed KYC record", e);
+        }
+    }
+
+    private String[] fields() {
+        return new String[]{lastname, firstname, middlename, birthday, permanentAddress, currentAddress, fathername,
+                mothername, gender, contactNo, maritalStatus, nationality, occupation, income};
+    }
+}
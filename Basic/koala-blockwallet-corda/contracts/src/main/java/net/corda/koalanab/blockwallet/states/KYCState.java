@@ -1,25 +1,37 @@
 package net.corda.koalanab.blockwallet.states;
 
 import net.corda.koalanab.blockwallet.contracts.KYCContract;
+import net.corda.koalanab.blockwallet.schema.KYCSchemaV1;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 import net.corda.core.contracts.BelongsToContract;
-import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.LinearState;
 import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.SecureHash;
 import net.corda.core.identity.AbstractParty;
 import net.corda.core.identity.Party;
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+import net.corda.core.schemas.QueryableState;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
+/**
+ * A KYC record of a wallet account.
+ *
+ * The personal details are either carried on-ledger in the fields below, or kept off-ledger as a [KYCRecord] in each
+ * party's node-local document store. In the off-ledger (anchored) mode every personal field is null and the state only
+ * holds the account id and the SHA-256 payloadHash of the record's canonical bytes.
+ */
 @Getter
 @AllArgsConstructor
 @BelongsToContract(KYCContract.class)
-public class KYCState implements ContractState {
+public class KYCState implements LinearState, QueryableState {
 
     private final UniqueIdentifier linearId;
     private final long accountId;
@@ -41,9 +53,29 @@ public class KYCState implements ContractState {
     private final Party sender;
     private final Party receiver;
 
+    // Hash of the off-ledger KYCRecord; null for a KYC carried on-ledger.
+    private final SecureHash payloadHash;
+
     @NotNull
     @Override
     public List<AbstractParty> getParticipants() { return Arrays.asList(sender,receiver); }
+
+    public boolean hasOffLedgerPayload() {
+        return payloadHash != null;
+    }
+
+    @Override public PersistentState generateMappedObject(MappedSchema schema) {
+        if (schema instanceof KYCSchemaV1) {
+            return new KYCSchemaV1.PersistentKYC(this.accountId, this.linearId.getId(),
+                    this.payloadHash == null ? null : this.payloadHash.toString());
+        } else {
+            throw new IllegalArgumentException("Unrecognised schema " + schema);
+        }
+    }
+
+    @Override public Iterable<MappedSchema> supportedSchemas() {
+        return Arrays.asList(new KYCSchemaV1());
+    }
 }
 
 
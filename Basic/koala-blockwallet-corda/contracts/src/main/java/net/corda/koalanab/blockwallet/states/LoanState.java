@@ -1,31 +1,45 @@
 package net.corda.koalanab.blockwallet.states;
 
 import net.corda.koalanab.blockwallet.contracts.LoanContract;
+import net.corda.koalanab.blockwallet.schema.LoanSchemaV1;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import net.corda.core.contracts.BelongsToContract;
-import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.LinearState;
 import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.identity.AbstractParty;
 import net.corda.core.identity.Party;
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+import net.corda.core.schemas.QueryableState;
 
 import java.time.LocalDateTime;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
+/**
+ * A loan between a wallet (sender) and a lender (receiver).
+ *
+ * Every lifecycle step consumes the previous version, but a loan takes at most two steps after it is requested
+ * (a decision, then its payment), so its backchain never holds more than three transactions.
+ */
 @Getter
 @AllArgsConstructor
 @BelongsToContract( LoanContract.class)
-public class LoanState implements ContractState {
+public class LoanState implements LinearState, QueryableState {
 
     private final UniqueIdentifier linearId;
 
     private final long walletAccountId;
     private final String purpose;
+    /** Legacy decimal amount, see [amountMinor]. */
+    @Deprecated
     private final String amount;
     private final String paymentTerms;
     private final String occupation;
+    /** Legacy decimal gross income, see [grossIncomeMinor]. */
+    @Deprecated
     private final String grossIncome;
     private final UniqueIdentifier kycId;
     private final boolean approved;
@@ -46,8 +60,66 @@ public class LoanState implements ContractState {
     private Party sender;
     private Party receiver;
 
+    // Amounts in minor units. They are null only on loans issued while amounts were still strings; such loans keep
+    // their legacy strings for their whole life, since a free-text amount may not convert to minor units.
+    private final Long amountMinor;
+    private final Long grossIncomeMinor;
+
     @Override
     public List<AbstractParty> getParticipants() { return Arrays.asList(sender,receiver); }
+
+    public long getAmountInMinorUnits() {
+        return amountMinor != null ? amountMinor : MinorUnits.parseLegacy(amount);
+    }
+
+    /**
+     * Whether [getAmountInMinorUnits] can read this loan's amount; false only for a legacy loan whose amount is not a
+     * valid amount.
+     */
+    public boolean isAmountReadable() {
+        return amountMinor != null || MinorUnits.isValid(amount);
+    }
+
+    public long getGrossIncomeInMinorUnits() {
+        return grossIncomeMinor != null ? grossIncomeMinor : MinorUnits.parseLegacy(grossIncome);
+    }
+
+    /**
+     * Returns the next version of this loan carrying the lender's decision. Everything else, amounts included, is
+     * carried over unchanged.
+     */
+    public LoanState withDecision(boolean approved, String dateApproved, String dateRejected, String remarks, String creditScore) {
+        return new LoanState(linearId, walletAccountId, purpose, amount, paymentTerms, occupation, grossIncome, kycId,
+                approved, dateApproved, dateRequested, dateRejected, remarks, creditScore, paidRemarks, datePaid,
+                sender, receiver, amountMinor, grossIncomeMinor);
+    }
+
+    /**
+     * Returns the next version of this loan recording its repayment. Everything else, amounts included, is carried
+     * over unchanged.
+     */
+    public LoanState withPayment(String paidRemarks, String datePaid) {
+        return new LoanState(linearId, walletAccountId, purpose, amount, paymentTerms, occupation, grossIncome, kycId,
+                approved, dateApproved, dateRequested, dateRejected, remarks, creditScore, paidRemarks, datePaid,
+                sender, receiver, amountMinor, grossIncomeMinor);
+    }
+
+    @Override public PersistentState generateMappedObject(MappedSchema schema) {
+        if (schema instanceof LoanSchemaV1) {
+            return new LoanSchemaV1.PersistentLoan(
+                    this.linearId.getId(),
+                    this.walletAccountId,
+                    this.kycId == null ? null : this.kycId.getId(),
+                    LoanStatus.of(this).name(),
+                    isAmountReadable() ? getAmountInMinorUnits() : null);
+        } else {
+            throw new IllegalArgumentException("Unrecognised schema " + schema);
+        }
+    }
+
+    @Override public Iterable<MappedSchema> supportedSchemas() {
+        return Arrays.asList(new LoanSchemaV1());
+    }
 }
 
 
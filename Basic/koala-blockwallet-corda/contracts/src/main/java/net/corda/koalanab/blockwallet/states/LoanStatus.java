@@ -0,0 +1,21 @@
+package net.corda.koalanab.blockwallet.states;
+
+import net.corda.core.serialization.CordaSerializable;
+
+/**
+ * The lifecycle stage of a [LoanState], derived from its approval and payment fields.
+ */
+@CordaSerializable
+public enum LoanStatus {
+    REQUESTED,
+    APPROVED,
+    REJECTED,
+    PAID;
+
+    public static LoanStatus of(LoanState loan) {
+        if (loan.getDatePaid() != null) return PAID;
+        if (loan.isApproved()) return APPROVED;
+        if (loan.getDateRejected() != null) return REJECTED;
+        return REQUESTED;
+    }
+}
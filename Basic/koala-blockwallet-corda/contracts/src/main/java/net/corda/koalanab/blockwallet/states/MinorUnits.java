@@ -0,0 +1,51 @@
+package net.corda.koalanab.blockwallet.states;
+
+import java.math.BigDecimal;
+
+/**
+ * Conversions between decimal amount strings (e.g. "1500.25") and whole minor units (e.g. 150025 cents).
+ */
+public final class MinorUnits {
+
+    /** Number of decimal places held in the minor unit. */
+    public static final int SCALE = 2;
+
+    private MinorUnits() { }
+
+    /**
+     * Parses a decimal amount into minor units.
+     *
+     * @throws ArithmeticException if the amount has more than [SCALE] decimal places or does not fit in a long.
+     * @throws NumberFormatException if the amount is not a decimal number.
+     */
+    public static long parse(String amount) {
+        return new BigDecimal(amount.trim()).movePointRight(SCALE).longValueExact();
+    }
+
+    public static boolean isValid(String amount) {
+        if (amount == null) return false;
+        try {
+            parse(amount);
+            return true;
+        } catch (NumberFormatException | ArithmeticException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Parses an amount written by a pre-minor-unit state, where the field was free text.
+     *
+     * @throws IllegalArgumentException if the amount is not a valid amount, rather than reading it as zero: such a
+     * state cannot be carried over to minor units, and a zero would silently drop its money from every balance.
+     */
+    public static long parseLegacy(String amount) {
+        if (!isValid(amount)) {
+            throw new IllegalArgumentException("The legacy amount \"" + amount + "\" is not a valid amount.");
+        }
+        return parse(amount);
+    }
+
+    public static String format(long minorUnits) {
+        return BigDecimal.valueOf(minorUnits, SCALE).toPlainString();
+    }
+}
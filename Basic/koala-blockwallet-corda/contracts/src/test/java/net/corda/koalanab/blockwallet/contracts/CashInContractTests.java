@@ -0,0 +1,137 @@
+package net.corda.koalanab.blockwallet.contracts;
+
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.koalanab.blockwallet.states.CashInState;
+import net.corda.testing.core.TestIdentity;
+import net.corda.testing.node.MockServices;
+import org.junit.Test;
+
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.List;
+
+import static net.corda.testing.node.MockServicesKt.makeTestIdentityService;
+import static net.corda.testing.node.NodeTestUtils.ledger;
+
+public class CashInContractTests {
+
+    private static final TestIdentity AFFILIATE = new TestIdentity(new CordaX500Name("BPI", "Paris", "FR"));
+    private static final TestIdentity WALLET = new TestIdentity(new CordaX500Name("BlockWallet", "New York", "US"));
+    private static final List<PublicKey> BOTH = Arrays.asList(AFFILIATE.getPublicKey(), WALLET.getPublicKey());
+
+    private final MockServices ledgerServices = new MockServices(
+            Arrays.asList("net.corda.koalanab.blockwallet.contracts", "net.corda.koalanab.blockwallet.schema"),
+            AFFILIATE,
+            makeTestIdentityService(AFFILIATE.getIdentity(), WALLET.getIdentity()));
+
+    private static CashInState cashIn(String walletAccount, long amount) {
+        return new CashInState(new UniqueIdentifier(), "AFF-1", walletAccount, null,
+                AFFILIATE.getParty(), WALLET.getParty(), amount);
+    }
+
+    @Test
+    public void singleCashInVerifies() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.output(CashInContract.ID, cashIn("WAL-1", 10_000L));
+                tx.command(BOTH, new CashInContract.Commands.Send());
+                return tx.verifies();
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void batchOfCashInsVerifies() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.output(CashInContract.ID, cashIn("WAL-1", 10_000L));
+                tx.output(CashInContract.ID, cashIn("WAL-2", 20_000L));
+                tx.output(CashInContract.ID, cashIn("WAL-1", 30_000L));
+                tx.command(BOTH, new CashInContract.Commands.Send());
+                return tx.verifies();
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void batchFailsIfAnyCashInIsNotPositive() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.output(CashInContract.ID, cashIn("WAL-1", 10_000L));
+                tx.output(CashInContract.ID, cashIn("WAL-2", 0L));
+                tx.command(BOTH, new CashInContract.Commands.Send());
+                return tx.failsWith("The amount must be positive.");
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void batchFailsIfAnyCashInHasNoWalletAccount() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.output(CashInContract.ID, cashIn("WAL-1", 10_000L));
+                tx.output(CashInContract.ID, cashIn("", 10_000L));
+                tx.command(BOTH, new CashInContract.Commands.Send());
+                return tx.failsWith("The wallet account must be given.");
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void cashInMustHaveAnAffiliateAccount() {
+        final CashInState noAffiliate = new CashInState(new UniqueIdentifier(), null, "WAL-1", null,
+                AFFILIATE.getParty(), WALLET.getParty(), 10_000L);
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.output(CashInContract.ID, noAffiliate);
+                tx.command(BOTH, new CashInContract.Commands.Send());
+                return tx.failsWith("The affiliate account must be given.");
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void cashInMustBeSignedByBothParties() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.output(CashInContract.ID, cashIn("WAL-1", 10_000L));
+                tx.command(AFFILIATE.getPublicKey(), new CashInContract.Commands.Send());
+                return tx.failsWith("All of the participants must be signers.");
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void cashInCommandCannotBeRepeated() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.output(CashInContract.ID, cashIn("WAL-1", 10_000L));
+                tx.command(BOTH, new CashInContract.Commands.Send());
+                tx.command(BOTH, new CashInContract.Commands.Send());
+                return tx.failsWith("A transaction can carry a single cash-in command.");
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void cashInCannotBeConsumed() {
+        final CashInState sent = cashIn("WAL-1", 10_000L);
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(CashInContract.ID, sent);
+                tx.output(CashInContract.ID, sent);
+                tx.command(BOTH, new CashInContract.Commands.Send());
+                return tx.failsWith("A cash-in is only issued, it cannot be consumed.");
+            });
+            return null;
+        });
+    }
+}
@@ -0,0 +1,320 @@
+package net.corda.koalanab.blockwallet.contracts;
+
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.koalanab.blockwallet.states.KYCState;
+import net.corda.koalanab.blockwallet.states.LoanState;
+import net.corda.testing.core.TestIdentity;
+import net.corda.testing.node.MockServices;
+import org.junit.Test;
+
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.List;
+
+import static net.corda.testing.node.MockServicesKt.makeTestIdentityService;
+import static net.corda.testing.node.NodeTestUtils.ledger;
+
+public class LoanContractTests {
+
+    private static final TestIdentity LENDER = new TestIdentity(new CordaX500Name("BPI", "Paris", "FR"));
+    private static final TestIdentity BORROWER = new TestIdentity(new CordaX500Name("BlockWallet", "New York", "US"));
+    private static final List<PublicKey> BOTH = Arrays.asList(LENDER.getPublicKey(), BORROWER.getPublicKey());
+
+    private final MockServices ledgerServices = new MockServices(
+            Arrays.asList("net.corda.koalanab.blockwallet.contracts", "net.corda.koalanab.blockwallet.schema"),
+            LENDER,
+            makeTestIdentityService(LENDER.getIdentity(), BORROWER.getIdentity()));
+
+    private final KYCState kyc = new KYCState(new UniqueIdentifier(), 1_000L, "Dela Cruz", "Juan", "Santos",
+            "1990-01-01", "Manila", "Manila", "Pedro", "Maria", "M", "09170000000", "Single", "Filipino", "Engineer",
+            "5000000", BORROWER.getParty(), LENDER.getParty(), null);
+
+    private LoanState requested(long amount) {
+        return new LoanState(new UniqueIdentifier(), 1_000L, "Tuition", null, "12 months", "Engineer", null,
+                kyc.getLinearId(), false, null, "2022-01-01", null, null, null, null, null,
+                BORROWER.getParty(), LENDER.getParty(), amount, 2_500_000L);
+    }
+
+    private LoanState requested() {
+        return requested(5_000_000L);
+    }
+
+    private static LoanState approved(LoanState loan) {
+        return loan.withDecision(true, "2022-01-02", null, "Good standing", "700");
+    }
+
+    private static LoanState rejected(LoanState loan) {
+        return loan.withDecision(false, null, "2022-01-02", "Insufficient income", "400");
+    }
+
+    private static LoanState paid(LoanState loan) {
+        return loan.withPayment("Paid in full", "2022-06-01");
+    }
+
+    @Test
+    public void requestVerifies() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.reference(KYCContract.ID, kyc);
+                tx.output(LoanContract.ID, requested());
+                tx.command(BOTH, new LoanContract.Commands.Request());
+                return tx.verifies();
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void requestMustReferenceTheKyc() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.output(LoanContract.ID, requested());
+                tx.command(BOTH, new LoanContract.Commands.Request());
+                return tx.failsWith("A new loan must reference the KYC it was requested with.");
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void requestMustHaveAPositiveAmount() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.reference(KYCContract.ID, kyc);
+                tx.output(LoanContract.ID, requested(0L));
+                tx.command(BOTH, new LoanContract.Commands.Request());
+                return tx.failsWith("The amount must be positive.");
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void requestMustBeSignedByBothParties() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.reference(KYCContract.ID, kyc);
+                tx.output(LoanContract.ID, requested());
+                tx.command(BORROWER.getPublicKey(), new LoanContract.Commands.Request());
+                return tx.failsWith("All of the participants must be signers.");
+            });
+            return null;
+        });
+    }
+
+    // Without an input, a loan can only enter the ledger as requested; nothing can issue an already decided loan.
+    @Test
+    public void decidedLoanCannotBeIssued() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.reference(KYCContract.ID, kyc);
+                tx.output(LoanContract.ID, approved(requested()));
+                tx.command(BOTH, new LoanContract.Commands.Request());
+                return tx.failsWith("A new loan must be requested, not decided.");
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void approveVerifies() {
+        final LoanState loan = requested();
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(LoanContract.ID, loan);
+                tx.output(LoanContract.ID, approved(loan));
+                tx.command(BOTH, new LoanContract.Commands.Approve());
+                return tx.verifies();
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void rejectVerifies() {
+        final LoanState loan = requested();
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(LoanContract.ID, loan);
+                tx.output(LoanContract.ID, rejected(loan));
+                tx.command(BOTH, new LoanContract.Commands.Reject());
+                return tx.verifies();
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void paidVerifies() {
+        final LoanState loan = approved(requested());
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(LoanContract.ID, loan);
+                tx.output(LoanContract.ID, paid(loan));
+                tx.command(BOTH, new LoanContract.Commands.Paid());
+                return tx.verifies();
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void decisionMustUseItsCommand() {
+        final LoanState loan = requested();
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(LoanContract.ID, loan);
+                tx.output(LoanContract.ID, approved(loan));
+                tx.command(BOTH, new LoanContract.Commands.Request());
+                return tx.failsWith("Each loan must be covered by the command of its step, Approve.");
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void amountCannotChange() {
+        final LoanState loan = requested();
+        final LoanState changed = new LoanState(loan.getLinearId(), 1_000L, "Tuition", null, "12 months", "Engineer",
+                null, kyc.getLinearId(), true, "2022-01-02", "2022-01-01", null, "Good standing", "700", null, null,
+                BORROWER.getParty(), LENDER.getParty(), 9_000_000L, 2_500_000L);
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(LoanContract.ID, loan);
+                tx.output(LoanContract.ID, changed);
+                tx.command(BOTH, new LoanContract.Commands.Approve());
+                return tx.failsWith("The amount cannot change once requested.");
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void legacyLoanKeepsItsStringAmountThroughItsLifecycle() {
+        final LoanState legacy = new LoanState(new UniqueIdentifier(), 1_000L, "Tuition", "around 50k", "12 months",
+                "Engineer", "25k a month", kyc.getLinearId(), false, null, "2019-01-01", null, null, null, null, null,
+                BORROWER.getParty(), LENDER.getParty(), null, null);
+        final LoanState approved = approved(legacy);
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(LoanContract.ID, legacy);
+                tx.output(LoanContract.ID, approved);
+                tx.command(BOTH, new LoanContract.Commands.Approve());
+                return tx.verifies();
+            });
+            l.transaction(tx -> {
+                tx.input(LoanContract.ID, approved);
+                tx.output(LoanContract.ID, paid(approved));
+                tx.command(BOTH, new LoanContract.Commands.Paid());
+                return tx.verifies();
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void rejectedLoanCannotBePaid() {
+        final LoanState loan = rejected(requested());
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(LoanContract.ID, loan);
+                tx.output(LoanContract.ID, paid(loan));
+                tx.command(BOTH, new LoanContract.Commands.Paid());
+                return tx.failsWith("A loan cannot go from REJECTED to PAID.");
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void paidLoanCannotBePaidAgain() {
+        final LoanState loan = paid(approved(requested()));
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(LoanContract.ID, loan);
+                tx.output(LoanContract.ID, paid(loan));
+                tx.command(BOTH, new LoanContract.Commands.Paid());
+                return tx.failsWith("A loan cannot go from PAID to PAID.");
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void loanCannotLeaveTheLedger() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(LoanContract.ID, approved(requested()));
+                tx.command(BOTH, new LoanContract.Commands.Paid());
+                return tx.failsWith("A loan cannot leave the ledger.");
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void commandCannotBeRepeated() {
+        final LoanState loan = requested();
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(LoanContract.ID, loan);
+                tx.output(LoanContract.ID, approved(loan));
+                tx.command(BOTH, new LoanContract.Commands.Approve());
+                tx.command(BOTH, new LoanContract.Commands.Approve());
+                return tx.failsWith("A transaction can carry each loan command only once.");
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void everyCommandMustBeUsed() {
+        final LoanState loan = requested();
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(LoanContract.ID, loan);
+                tx.output(LoanContract.ID, approved(loan));
+                tx.command(BOTH, new LoanContract.Commands.Approve());
+                tx.command(BOTH, new LoanContract.Commands.Reject());
+                return tx.failsWith("Every loan command must be used by at least one loan.");
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void batchCanApproveAndRejectTogether() {
+        final LoanState first = requested();
+        final LoanState second = requested();
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(LoanContract.ID, first);
+                tx.input(LoanContract.ID, second);
+                tx.output(LoanContract.ID, approved(first));
+                tx.output(LoanContract.ID, rejected(second));
+                tx.command(BOTH, new LoanContract.Commands.Approve());
+                tx.command(BOTH, new LoanContract.Commands.Reject());
+                return tx.verifies();
+            });
+            return null;
+        });
+    }
+
+    @Test
+    public void batchFailsIfAnyLoanTakesAnIllegalStep() {
+        final LoanState first = requested();
+        final LoanState second = rejected(requested());
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(LoanContract.ID, first);
+                tx.input(LoanContract.ID, second);
+                tx.output(LoanContract.ID, approved(first));
+                tx.output(LoanContract.ID, approved(second));
+                tx.command(BOTH, new LoanContract.Commands.Approve());
+                return tx.failsWith("A loan cannot go from REJECTED to APPROVED.");
+            });
+            return null;
+        });
+    }
+}
@@ -0,0 +1,90 @@
+package net.corda.koalanab.blockwallet.states;
+
+import net.corda.core.crypto.SecureHash;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+public class KYCRecordTests {
+
+    private static final byte[] SALT = new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15};
+
+    private static KYCRecord record(String lastname, String firstname, byte[] salt) {
+        return new KYCRecord(1_000L, lastname, firstname, null, "1990-01-01", "Manila", "Quezon City", "Pedro",
+                "Maria", "M", "09170000000", "Single", "Filipino", "Engineer", "50000.00", salt);
+    }
+
+    private static KYCRecord record() {
+        return record("Dela Cruz", "Juan", SALT);
+    }
+
+    @Test
+    public void canonicalBytesRoundTrip() {
+        final KYCRecord original = record();
+        final KYCRecord copy = KYCRecord.fromCanonicalBytes(original.canonicalBytes());
+
+        assertEquals(original.getAccountId(), copy.getAccountId());
+        assertEquals("Dela Cruz", copy.getLastname());
+        assertEquals("Juan", copy.getFirstname());
+        assertNull(copy.getMiddlename());
+        assertEquals("50000.00", copy.getIncome());
+        assertArrayEquals(SALT, copy.getSalt());
+        assertArrayEquals(original.canonicalBytes(), copy.canonicalBytes());
+        assertEquals(original.hash(), copy.hash());
+    }
+
+    @Test
+    public void onLedgerRecordRoundTripsWithoutSalt() {
+        final KYCRecord original = record("Dela Cruz", "Juan", null);
+        final KYCRecord copy = KYCRecord.fromCanonicalBytes(original.canonicalBytes());
+
+        assertNull(copy.getSalt());
+        assertEquals(original.hash(), copy.hash());
+    }
+
+    @Test
+    public void hashIsStableAcrossInstancesAndReleases() {
+        // Anchored hashes live on the ledger, so the layout they are taken over must never change.
+        assertEquals(SecureHash.parse("0A7F402BFB23743B12CDA1F46C1FB92D7A75B85B76957B36B51B7E3F3C147785"),
+                record().hash());
+        assertEquals(record().hash(), record("Dela Cruz", "Juan", Arrays.copyOf(SALT, SALT.length)).hash());
+    }
+
+    @Test
+    public void hashDependsOnTheSalt() {
+        final byte[] otherSalt = Arrays.copyOf(SALT, SALT.length);
+        otherSalt[0] = 42;
+        assertNotEquals(record().hash(), record("Dela Cruz", "Juan", otherSalt).hash());
+        assertNotEquals(record().hash(), record("Dela Cruz", "Juan", null).hash());
+    }
+
+    @Test
+    public void hashDependsOnWhichFieldHoldsWhichValue() {
+        assertNotEquals(record("Dela Cruz", "Juan", SALT).hash(), record("Juan", "Dela Cruz", SALT).hash());
+        // Fields are length-prefixed, so moving characters across a field boundary changes the hash too.
+        assertNotEquals(record("Dela Cruz", "Juan", SALT).hash(), record("Dela Cru", "zJuan", SALT).hash());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void saltMustHaveTheFixedLength() {
+        record("Dela Cruz", "Juan", new byte[KYCRecord.SALT_LENGTH - 1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownFormatIsRejected() {
+        final byte[] bytes = record().canonicalBytes();
+        bytes[0] = 1;
+        KYCRecord.fromCanonicalBytes(bytes);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedRecordIsRejected() {
+        final byte[] bytes = record().canonicalBytes();
+        KYCRecord.fromCanonicalBytes(Arrays.copyOf(bytes, bytes.length - 1));
+    }
+}
@@ -0,0 +1,78 @@
+package net.corda.koalanab.blockwallet.states;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MinorUnitsTests {
+
+    @Test
+    public void parsesValidAmounts() {
+        assertEquals(150_025L, MinorUnits.parse("1500.25"));
+        assertEquals(150_000L, MinorUnits.parse("1500"));
+        assertEquals(150_020L, MinorUnits.parse("1500.2"));
+        assertEquals(5L, MinorUnits.parse("0.05"));
+        assertEquals(150_000L, MinorUnits.parse(" 1500.00 "));
+        assertEquals(-1_000L, MinorUnits.parse("-10"));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void rejectsMoreDecimalPlacesThanTheScale() {
+        // Rejected rather than rounded, so no fraction of a minor unit is silently lost.
+        MinorUnits.parse("1500.255");
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void rejectsAmountsThatDoNotFitInALong() {
+        MinorUnits.parse("92233720368547758.08");
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void rejectsNonNumericAmounts() {
+        MinorUnits.parse("1,500.25");
+    }
+
+    @Test
+    public void trailingZerosBeyondTheScaleAreNotRounding() {
+        assertEquals(150_025L, MinorUnits.parse("1500.2500"));
+    }
+
+    @Test
+    public void validatesAmounts() {
+        assertTrue(MinorUnits.isValid("1500.25"));
+        assertFalse(MinorUnits.isValid("1500.255"));
+        assertFalse(MinorUnits.isValid("about 1500"));
+        assertFalse(MinorUnits.isValid(""));
+        assertFalse(MinorUnits.isValid(null));
+    }
+
+    @Test
+    public void parsesValidLegacyAmounts() {
+        assertEquals(150_025L, MinorUnits.parseLegacy("1500.25"));
+        assertEquals(150_000L, MinorUnits.parseLegacy("1500"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsFreeTextLegacyAmounts() {
+        MinorUnits.parseLegacy("around 50k");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsLegacyAmountsWithTooManyDecimalPlaces() {
+        MinorUnits.parseLegacy("1500.255");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingLegacyAmounts() {
+        MinorUnits.parseLegacy(null);
+    }
+
+    @Test
+    public void formatsMinorUnits() {
+        assertEquals("1500.25", MinorUnits.format(150_025L));
+        assertEquals("0.05", MinorUnits.format(5L));
+        assertEquals("1500.00", MinorUnits.format(150_000L));
+    }
+}
@@ -0,0 +1,133 @@
+package net.corda.koalanab.blockwallet.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.google.common.collect.ImmutableList;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByRPC;
+import net.corda.core.flows.StartableByService;
+import net.corda.core.node.services.vault.Builder;
+import net.corda.core.node.services.vault.FieldInfo;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.serialization.CordaSerializable;
+import net.corda.koalanab.blockwallet.schema.CashInSchemaV1;
+import net.corda.koalanab.blockwallet.services.QueryCacheService;
+import net.corda.koalanab.blockwallet.services.QueryCacheService.Region;
+import net.corda.koalanab.blockwallet.states.CashInState;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.MAX_PAGE_SIZE;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.getField;
+
+/**
+ * Cash-in totals computed by the node database (SUM/COUNT ... GROUP BY) rather than by pulling every
+ * [CashInState] over RPC.
+ *
+ * Amounts in the results are in minor units, see [net.corda.koalanab.blockwallet.states.MinorUnits]. Totals are
+ * served from the [QueryCacheService] until a cash-in of the account is recorded.
+ */
+public class CashInAggregationFlow {
+
+    /**
+     * Totals grouped by wallet account. Pass a wallet account to get the total of that wallet only, or null for all.
+     */
+    @StartableByRPC
+    @StartableByService
+    public static class TotalsByWallet extends Totals {
+        public TotalsByWallet(String walletAccount) {
+            super("walletAccount", Region.CASH_INS_BY_WALLET, walletAccount);
+        }
+    }
+
+    /**
+     * Totals grouped by affiliate account. Pass an affiliate account to get the total of that affiliate only, or null
+     * for all.
+     */
+    @StartableByRPC
+    @StartableByService
+    public static class TotalsByAffiliate extends Totals {
+        public TotalsByAffiliate(String affiliateAccount) {
+            super("affiliateAccount", Region.CASH_INS_BY_AFFILIATE, affiliateAccount);
+        }
+    }
+
+    abstract static class Totals extends FlowLogic<List<CashInTotal>> {
+
+        private final String groupByField;
+        private final Region region;
+        private final String account;
+
+        Totals(String groupByField, Region region, String account) {
+            this.groupByField = groupByField;
+            this.region = region;
+            this.account = account;
+        }
+
+        @Suspendable
+        @Override
+        public List<CashInTotal> call() throws FlowException {
+            return getServiceHub().cordaService(QueryCacheService.class).get(region, account,
+                    Collections.singletonList("totals"), this::aggregate, List::size);
+        }
+
+        private List<CashInTotal> aggregate() throws FlowException {
+            final FieldInfo amount;
+            final FieldInfo groupBy;
+            try {
+                amount = getField("amount", CashInSchemaV1.PersistentCashIn.class);
+                groupBy = getField(groupByField, CashInSchemaV1.PersistentCashIn.class);
+            } catch (NoSuchFieldException e) {
+                throw new FlowException(e);
+            }
+
+            // Each result row is laid out as [sum(amount), groupBy, count(amount)].
+            QueryCriteria criteria = new QueryCriteria.VaultCustomQueryCriteria(Builder.sum(amount, ImmutableList.of(groupBy)))
+                    .and(new QueryCriteria.VaultCustomQueryCriteria(Builder.count(amount)));
+            if (account != null) {
+                criteria = criteria.and(new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(groupBy, account)));
+            }
+
+            final List<Object> rows = getServiceHub().getVaultService()
+                    .queryBy(CashInState.class, criteria, new PageSpecification(DEFAULT_PAGE_NUM, MAX_PAGE_SIZE))
+                    .getOtherResults();
+
+            final List<CashInTotal> totals = new ArrayList<>(rows.size() / 3);
+            for (int i = 0; i + 2 < rows.size(); i += 3) {
+                final Number sum = (Number) rows.get(i);
+                final Number count = (Number) rows.get(i + 2);
+                totals.add(new CashInTotal(
+                        (String) rows.get(i + 1),
+                        sum == null ? 0L : sum.longValue(),
+                        count == null ? 0L : count.longValue()));
+            }
+            return totals;
+        }
+    }
+
+    @CordaSerializable
+    public static class CashInTotal {
+        private final String account;
+        private final long totalAmount;
+        private final long count;
+
+        public CashInTotal(String account, long totalAmount, long count) {
+            this.account = account;
+            this.totalAmount = totalAmount;
+            this.count = count;
+        }
+
+        public String getAccount() { return account; }
+        public long getTotalAmount() { return totalAmount; }
+        public long getCount() { return count; }
+
+        @Override
+        public String toString() {
+            return String.format("CashInTotal(account=%s, totalAmount=%s, count=%s)", account, totalAmount, count);
+        }
+    }
+}
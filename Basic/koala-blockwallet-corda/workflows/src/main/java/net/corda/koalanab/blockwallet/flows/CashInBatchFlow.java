@@ -0,0 +1,284 @@
+package net.corda.koalanab.blockwallet.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import net.corda.core.contracts.Command;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.TransactionState;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.serialization.CordaSerializable;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.ProgressTracker;
+import net.corda.core.utilities.ProgressTracker.Step;
+import net.corda.koalanab.blockwallet.contracts.CashInContract;
+import net.corda.koalanab.blockwallet.services.AdmissionControlService;
+import net.corda.koalanab.blockwallet.services.NotarySelectionService;
+import net.corda.koalanab.blockwallet.states.CashInState;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static net.corda.core.contracts.ContractsDSL.requireThat;
+
+/**
+ * Issues many [CashInState]s at once, e.g. an affiliate's end-of-day upload.
+ *
+ * The entries are split into chunks of at most chunkSize cash-ins. Each chunk becomes one transaction with a single
+ * Send command, so the whole chunk shares one signature round trip and one notarisation. A batch has at most
+ * MAX_BATCH_SIZE entries.
+ *
+ * The chunks share one session with the counterparty, so the first chunk that fails stops the batch: the session can
+ * no longer be trusted to be in step. The chunks finalised before it stay on the ledger, and the outcome of every chunk
+ * is reported back so that the caller can resubmit the entries of the failed and unsent ones.
+ */
+public class CashInBatchFlow {
+
+    public static final int DEFAULT_CHUNK_SIZE = 100;
+    public static final int MAX_BATCH_SIZE = 10_000;
+
+    @InitiatingFlow
+    @StartableByRPC
+    @StartableByService
+    public static class CashInBatchInitiator extends MeteredFlowLogic<List<CashInChunkOutcome>> {
+
+        private final Step GENERATING_TRANSACTION = new Step("Generating transaction for the next chunk of cash-ins.");
+        private final Step VERIFYING_TRANSACTION = new Step("Verifying contract constraints.");
+        private final Step SIGNING_TRANSACTION = new Step("Signing transaction with our private key.");
+        private final Step GATHERING_SIGS = new Step("Gathering the counterparty's signature.");
+        private final Step FINALISING_TRANSACTION = new Step("Obtaining notary signature and recording transaction.");
+
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                GENERATING_TRANSACTION,
+                VERIFYING_TRANSACTION,
+                SIGNING_TRANSACTION,
+                GATHERING_SIGS,
+                FINALISING_TRANSACTION
+        );
+
+        private final List<CashInEntry> entries;
+        private final Party otherParty;
+        private final int chunkSize;
+
+        public CashInBatchInitiator(List<CashInEntry> entries, Party otherParty, int chunkSize) {
+            if (chunkSize < 1) {
+                throw new IllegalArgumentException("The chunk size must be at least 1.");
+            }
+            this.entries = entries;
+            this.otherParty = otherParty;
+            this.chunkSize = chunkSize;
+        }
+
+        public CashInBatchInitiator(List<CashInEntry> entries, Party otherParty) {
+            this(entries, otherParty, DEFAULT_CHUNK_SIZE);
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        @Suspendable
+        @Override
+        protected List<CashInChunkOutcome> run() throws FlowException {
+            final AdmissionControlService admission = getServiceHub().cordaService(AdmissionControlService.class);
+            await(admission.admit(this, AdmissionControlService.Priority.LOW));
+            try {
+                return sendBatch();
+            } finally {
+                admission.release(this);
+            }
+        }
+
+        @Suspendable
+        private List<CashInChunkOutcome> sendBatch() throws FlowException {
+            if (entries.isEmpty()) {
+                throw new FlowException("The batch has no cash-in entries.");
+            }
+            if (entries.size() > MAX_BATCH_SIZE) {
+                throw new FlowException("A batch has at most " + MAX_BATCH_SIZE + " cash-in entries.");
+            }
+            final NotarySelectionService notaries = getServiceHub().cordaService(NotarySelectionService.class);
+            final Party notary = notaries.select(CashInState.class);
+            final int chunkCount = (entries.size() + chunkSize - 1) / chunkSize;
+
+            // One session carries every chunk; tell the counterparty how many transactions to expect.
+            final FlowSession otherPartySession = initiateFlow(otherParty);
+            otherPartySession.send(chunkCount);
+
+            final List<CashInChunkOutcome> outcomes = new ArrayList<>(chunkCount);
+            boolean failed = false;
+            for (int from = 0; from < entries.size(); from += chunkSize) {
+                final int to = Math.min(from + chunkSize, entries.size());
+                if (failed) {
+                    outcomes.add(CashInChunkOutcome.notSent(from, to));
+                    continue;
+                }
+                try {
+                    final SignedTransaction stx = sendChunk(otherPartySession, notary, from, to);
+                    outcomes.add(CashInChunkOutcome.sent(from, to, stx.getId()));
+                } catch (FlowException e) {
+                    getLogger().warn("Cash-in batch failed for the chunk of entries " + from + " to " + to, e);
+                    outcomes.add(CashInChunkOutcome.failed(from, to, e.getMessage()));
+                    failed = true;
+                }
+            }
+            return outcomes;
+        }
+
+        @Suspendable
+        private SignedTransaction sendChunk(FlowSession otherPartySession, Party notary, int from, int to) throws FlowException {
+            progressTracker.setCurrentStep(GENERATING_TRANSACTION);
+            final Command<CashInContract.Commands.Send> txCommand = new Command<>(
+                    new CashInContract.Commands.Send(),
+                    ImmutableList.of(getOurIdentity().getOwningKey(), otherParty.getOwningKey()));
+            final TransactionBuilder txBuilder = new TransactionBuilder(notary).addCommand(txCommand);
+            for (int i = from; i < to; i++) {
+                final CashInEntry entry = entries.get(i);
+                txBuilder.addOutputState(new CashInState(
+                        new UniqueIdentifier(),
+                        entry.getAffiliateAccount(),
+                        entry.getWalletAccount(),
+                        null,
+                        getOurIdentity(),
+                        otherParty,
+                        entry.getAmount()
+                ), CashInContract.ID);
+            }
+
+            progressTracker.setCurrentStep(VERIFYING_TRANSACTION);
+            txBuilder.verify(getServiceHub());
+
+            progressTracker.setCurrentStep(SIGNING_TRANSACTION);
+            final SignedTransaction partSignedTx = getServiceHub().signInitialTransaction(txBuilder);
+
+            progressTracker.setCurrentStep(GATHERING_SIGS);
+            final SignedTransaction fullySignedTx = subFlow(
+                    new CollectSignaturesFlow(partSignedTx, ImmutableSet.of(otherPartySession), CollectSignaturesFlow.Companion.tracker()));
+
+            progressTracker.setCurrentStep(FINALISING_TRANSACTION);
+            final long finalityStart = System.nanoTime();
+            final SignedTransaction stx = subFlow(new FinalityFlow(fullySignedTx, ImmutableSet.of(otherPartySession)));
+            getServiceHub().cordaService(NotarySelectionService.class).recordFinality(notary, finalityStart);
+            return stx;
+        }
+    }
+
+    /**
+     * A single cash-in of a batch. The amount is in minor units.
+     */
+    @CordaSerializable
+    public static class CashInEntry {
+        private final String affiliateAccount;
+        private final String walletAccount;
+        private final long amount;
+
+        public CashInEntry(String affiliateAccount, String walletAccount, long amount) {
+            this.affiliateAccount = affiliateAccount;
+            this.walletAccount = walletAccount;
+            this.amount = amount;
+        }
+
+        public String getAffiliateAccount() { return affiliateAccount; }
+        public String getWalletAccount() { return walletAccount; }
+        public long getAmount() { return amount; }
+    }
+
+    @CordaSerializable
+    public enum Outcome { SENT, FAILED, NOT_SENT }
+
+    /**
+     * The outcome of the chunk of entries [fromEntry, toEntry) of a batch.
+     */
+    @CordaSerializable
+    public static class CashInChunkOutcome {
+        private final int fromEntry;
+        private final int toEntry;
+        private final Outcome outcome;
+        private final SecureHash txId;
+        private final String message;
+
+        public CashInChunkOutcome(int fromEntry, int toEntry, Outcome outcome, SecureHash txId, String message) {
+            this.fromEntry = fromEntry;
+            this.toEntry = toEntry;
+            this.outcome = outcome;
+            this.txId = txId;
+            this.message = message;
+        }
+
+        static CashInChunkOutcome sent(int fromEntry, int toEntry, SecureHash txId) {
+            return new CashInChunkOutcome(fromEntry, toEntry, Outcome.SENT, txId, null);
+        }
+
+        static CashInChunkOutcome failed(int fromEntry, int toEntry, String message) {
+            return new CashInChunkOutcome(fromEntry, toEntry, Outcome.FAILED, null, message);
+        }
+
+        static CashInChunkOutcome notSent(int fromEntry, int toEntry) {
+            return new CashInChunkOutcome(fromEntry, toEntry, Outcome.NOT_SENT, null, "An earlier chunk of the batch failed.");
+        }
+
+        public int getFromEntry() { return fromEntry; }
+        public int getToEntry() { return toEntry; }
+        public Outcome getOutcome() { return outcome; }
+        public SecureHash getTxId() { return txId; }
+        public String getMessage() { return message; }
+
+        @Override
+        public String toString() {
+            return String.format("CashInChunkOutcome(entries=%d..%d, outcome=%s, txId=%s, message=%s)",
+                    fromEntry, toEntry, outcome, txId, message);
+        }
+    }
+
+    @InitiatedBy(CashInBatchInitiator.class)
+    public static class Acceptor extends FlowLogic<List<SignedTransaction>> {
+
+        private final FlowSession otherPartySession;
+
+        public Acceptor(FlowSession otherPartySession) {
+            this.otherPartySession = otherPartySession;
+        }
+
+        @Suspendable
+        @Override
+        public List<SignedTransaction> call() throws FlowException {
+            class SignTxFlow extends SignTransactionFlow {
+                private SignTxFlow(FlowSession otherPartyFlow, ProgressTracker progressTracker) {
+                    super(otherPartyFlow, progressTracker);
+                }
+
+                @Override
+                protected void checkTransaction(SignedTransaction stx) {
+                    requireThat(require -> {
+                        for (TransactionState<ContractState> output : stx.getTx().getOutputs()) {
+                            require.using("This must be a cash-in transaction.", output.getData() instanceof CashInState);
+                        }
+                        return null;
+                    });
+                }
+            }
+
+            // Every chunk carries at least one entry, so a batch cannot have more chunks than entries.
+            final int chunkCount = otherPartySession.receive(Integer.class).unwrap(count -> {
+                if (count < 1) throw new IllegalArgumentException("A batch must contain at least one transaction.");
+                if (count > MAX_BATCH_SIZE) {
+                    throw new IllegalArgumentException("A batch has at most " + MAX_BATCH_SIZE + " transactions.");
+                }
+                return count;
+            });
+
+            final List<SignedTransaction> transactions = new ArrayList<>();
+            for (int i = 0; i < chunkCount; i++) {
+                final SignTxFlow signTxFlow = new SignTxFlow(otherPartySession, SignTransactionFlow.Companion.tracker());
+                final SecureHash txId = subFlow(signTxFlow).getId();
+                transactions.add(subFlow(new ReceiveFinalityFlow(otherPartySession, txId)));
+            }
+            return transactions;
+        }
+    }
+}
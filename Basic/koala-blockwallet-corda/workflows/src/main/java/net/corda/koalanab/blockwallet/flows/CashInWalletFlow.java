@@ -6,7 +6,11 @@ import com.google.common.collect.ImmutableSet;
 
 
 import net.corda.koalanab.blockwallet.contracts.CashInContract;
+import net.corda.koalanab.blockwallet.services.AdmissionControlService;
+import net.corda.koalanab.blockwallet.services.ClientRequestService;
+import net.corda.koalanab.blockwallet.services.NotarySelectionService;
 import net.corda.koalanab.blockwallet.states.CashInState;
+import net.corda.koalanab.blockwallet.states.MinorUnits;
 import net.corda.core.contracts.Command;
 import net.corda.core.contracts.ContractState;
 import net.corda.core.contracts.UniqueIdentifier;
@@ -24,7 +28,7 @@ public class CashInWalletFlow {
     @InitiatingFlow
     @StartableByRPC
     @StartableByService
-    public static class CashInWalletInitiator extends FlowLogic<SignedTransaction> {
+    public static class CashInWalletInitiator extends MeteredFlowLogic<SignedTransaction> {
 
 
         private final Step GENERATING_INIT = new Step("Init transaction based on new IOU.");
@@ -59,14 +63,35 @@ public class CashInWalletFlow {
         // note: declaration of state cannot be set in the constructor. it should be placed inside the call function
         private final String affiliateAccount;
         private final String walletAccount;
-        private final String amount;
+        // in minor units, see MinorUnits
+        private final long amount;
         private final Party otherParty;
+        // optional, see ClientRequestService
+        private final String clientRequestId;
+        // the transaction this flow signed, if it got that far; see ClientRequestService.release
+        private SecureHash signedTxId = null;
 
-        public CashInWalletInitiator(String affiliateAccount, String walletAccount, String amount, Party otherParty) {
+        public CashInWalletInitiator(String affiliateAccount, String walletAccount, long amount, Party otherParty) {
+            this(affiliateAccount, walletAccount, amount, otherParty, null);
+        }
+
+        /**
+         * Submits the cash-in at most once per client request id; a resubmission returns the original transaction.
+         */
+        public CashInWalletInitiator(
+                String affiliateAccount, String walletAccount, long amount, Party otherParty, String clientRequestId) {
             this.affiliateAccount = affiliateAccount;
             this.walletAccount = walletAccount;
             this.amount = amount;
             this.otherParty = otherParty;
+            this.clientRequestId = clientRequestId;
+        }
+
+        /**
+         * Kept for clients that still send the amount as a decimal string, e.g. "1500.25".
+         */
+        public CashInWalletInitiator(String affiliateAccount, String walletAccount, String amount, Party otherParty) {
+            this(affiliateAccount, walletAccount, MinorUnits.parse(amount), otherParty);
         }
 
         @Override
@@ -79,18 +104,54 @@ public class CashInWalletFlow {
          */
         @Suspendable
         @Override
-        public SignedTransaction call() throws FlowException {
+        protected SignedTransaction run() throws FlowException {
+            final AdmissionControlService admission = getServiceHub().cordaService(AdmissionControlService.class);
+            await(admission.admit(this, AdmissionControlService.Priority.LOW));
+            try {
+                return submit();
+            } finally {
+                admission.release(this);
+            }
+        }
+
+        @Suspendable
+        private SignedTransaction submit() throws FlowException {
+            if (clientRequestId == null) {
+                return cashIn();
+            }
+            // A retried submission gets the transaction of the first one back instead of a duplicate.
+            final ClientRequestService clientRequests = getServiceHub().cordaService(ClientRequestService.class);
+            final SignedTransaction original = clientRequests.begin(this, clientRequestId,
+                    ClientRequestService.fingerprint(affiliateAccount, walletAccount, amount, otherParty));
+            if (original != null) {
+                return original;
+            }
+            final SignedTransaction notarisedTx;
+            try {
+                notarisedTx = cashIn();
+            } catch (FlowException | RuntimeException e) {
+                // Frees the id unless the transaction was notarised before the flow failed.
+                await(clientRequests.release(this, clientRequestId, signedTxId));
+                throw e;
+            }
+            clientRequests.complete(this, clientRequestId, notarisedTx.getId());
+            return notarisedTx;
+        }
+
+        @Suspendable
+        private SignedTransaction cashIn() throws FlowException {
             // Obtain a reference to the notary we want to use.
             progressTracker.setCurrentStep(GENERATING_INIT);
-            final Party notary = getServiceHub().getNetworkMapCache().getNotaryIdentities().get(0);
+            final Party notary = getServiceHub().cordaService(NotarySelectionService.class).select(CashInState.class);
 
             final CashInState currentState = new CashInState(
                     new UniqueIdentifier(),
                     affiliateAccount,
                     walletAccount,
-                    amount,
+                    null,
                     getOurIdentity(),
-                    otherParty
+                    otherParty,
+                    amount
             );
 
             // Stage 1.
@@ -112,6 +173,7 @@ public class CashInWalletFlow {
             progressTracker.setCurrentStep(SIGNING_TRANSACTION);
             // Sign the transaction.
             final SignedTransaction partSignedTx = getServiceHub().signInitialTransaction(txBuilder);
+            signedTxId = partSignedTx.getId();
 
             // Stage 4.
             progressTracker.setCurrentStep(GATHERING_SIGS);
@@ -123,7 +185,10 @@ public class CashInWalletFlow {
             // Stage 5.
             progressTracker.setCurrentStep(FINALISING_TRANSACTION);
             // Notarise and record the transaction in both parties' vaults.
-            return subFlow(new FinalityFlow(fullySignedTx, ImmutableSet.of(otherPartySession)));
+            final long finalityStart = System.nanoTime();
+            final SignedTransaction notarisedTx = subFlow(new FinalityFlow(fullySignedTx, ImmutableSet.of(otherPartySession)));
+            getServiceHub().cordaService(NotarySelectionService.class).recordFinality(notary, finalityStart);
+            return notarisedTx;
         }
     }
 
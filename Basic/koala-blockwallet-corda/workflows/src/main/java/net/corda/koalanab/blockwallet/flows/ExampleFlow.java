@@ -2,6 +2,7 @@ package net.corda.koalanab.blockwallet.flows;
 
 import co.paralleluniverse.fibers.Suspendable;
 import net.corda.koalanab.blockwallet.contracts.IOUContract;
+import net.corda.koalanab.blockwallet.services.NotarySelectionService;
 import net.corda.koalanab.blockwallet.states.IOUState;
 import net.corda.core.contracts.Command;
 import net.corda.core.contracts.ContractState;
@@ -17,7 +18,6 @@ import net.corda.core.utilities.ProgressTracker.Step;
 import java.util.Arrays;
 
 import static net.corda.core.contracts.ContractsDSL.requireThat;
-import net.corda.core.identity.CordaX500Name;
 
 /**
  * This flow allows two parties (the [Initiator] and the [Acceptor]) to come to an agreement about the IOU encapsulated
@@ -34,7 +34,7 @@ public class ExampleFlow {
     @InitiatingFlow
     @StartableByRPC
     @StartableByService
-    public static class ExampleInitiator extends FlowLogic<SignedTransaction> {
+    public static class ExampleInitiator extends MeteredFlowLogic<SignedTransaction> {
 
         private final int iouValue;
         private final Party otherParty;
@@ -81,11 +81,12 @@ public class ExampleFlow {
          */
         @Suspendable
         @Override
-        public SignedTransaction call() throws FlowException {
+        protected SignedTransaction run() throws FlowException {
 
             // Obtain a reference to a notary we wish to use.
-            /** Explicit selection of notary by CordaX500Name - argument can by coded in flows or parsed from config (Preferred)*/
-            final Party notary = getServiceHub().getNetworkMapCache().getNotary(CordaX500Name.parse("O=Notary,L=London,C=GB"));
+            /** Explicit selection of notary by CordaX500Name - pin it in config with notary.pinned.IOUState (Preferred)*/
+            final NotarySelectionService notaries = getServiceHub().cordaService(NotarySelectionService.class);
+            final Party notary = notaries.select(IOUState.class);
 
             // Stage 1.
             progressTracker.setCurrentStep(GENERATING_TRANSACTION);
@@ -119,7 +120,10 @@ public class ExampleFlow {
             // Stage 5.
             progressTracker.setCurrentStep(FINALISING_TRANSACTION);
             // Notarise and record the transaction in both parties' vaults.
-            return subFlow(new FinalityFlow(fullySignedTx, Arrays.asList(otherPartySession)));
+            final long finalityStart = System.nanoTime();
+            final SignedTransaction notarisedTx = subFlow(new FinalityFlow(fullySignedTx, Arrays.asList(otherPartySession)));
+            notaries.recordFinality(notary, finalityStart);
+            return notarisedTx;
         }
     }
 
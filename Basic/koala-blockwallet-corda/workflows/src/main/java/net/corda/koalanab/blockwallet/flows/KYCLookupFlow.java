@@ -0,0 +1,66 @@
+package net.corda.koalanab.blockwallet.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.google.common.collect.ImmutableList;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByRPC;
+import net.corda.core.flows.StartableByService;
+import net.corda.core.node.services.vault.Builder;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+import net.corda.core.node.services.vault.SortAttribute;
+import net.corda.koalanab.blockwallet.schema.KYCSchemaV1;
+import net.corda.koalanab.blockwallet.services.QueryCacheService;
+import net.corda.koalanab.blockwallet.states.KYCState;
+
+import java.util.Collections;
+import java.util.List;
+
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.getField;
+
+/**
+ * Returns the latest unconsumed KYC record of an account.
+ *
+ * The lookup goes through the indexed account_id column and only ever reads a single row, so its cost does not grow
+ * with the number of KYC states in the vault. Repeated lookups of an unchanged account are served from the
+ * [QueryCacheService].
+ */
+@StartableByRPC
+@StartableByService
+public class KYCLookupFlow extends FlowLogic<StateAndRef<KYCState>> {
+
+    private final long accountId;
+
+    public KYCLookupFlow(long accountId) {
+        this.accountId = accountId;
+    }
+
+    @Suspendable
+    @Override
+    public StateAndRef<KYCState> call() throws FlowException {
+        return getServiceHub().cordaService(QueryCacheService.class).get(QueryCacheService.Region.KYCS_BY_ACCOUNT,
+                String.valueOf(accountId), Collections.singletonList("latest"), this::lookup);
+    }
+
+    private StateAndRef<KYCState> lookup() throws FlowException {
+        final QueryCriteria criteria;
+        try {
+            criteria = new QueryCriteria.VaultCustomQueryCriteria(
+                    Builder.equal(getField("accountId", KYCSchemaV1.PersistentKYC.class), this.accountId));
+        } catch (NoSuchFieldException e) {
+            throw new FlowException(e);
+        }
+        final Sort latestFirst = new Sort(ImmutableList.of(new Sort.SortColumn(
+                new SortAttribute.Standard(Sort.VaultStateAttribute.RECORDED_TIME), Sort.Direction.DESC)));
+
+        final List<StateAndRef<KYCState>> kycs = getServiceHub().getVaultService()
+                .queryBy(KYCState.class, criteria, new PageSpecification(1, 1), latestFirst).getStates();
+        if (kycs.isEmpty()) {
+            throw new FlowException("KYC Not Found for account " + accountId);
+        }
+        return kycs.get(0);
+    }
+}
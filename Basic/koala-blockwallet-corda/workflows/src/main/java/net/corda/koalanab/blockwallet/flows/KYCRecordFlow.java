@@ -0,0 +1,39 @@
+package net.corda.koalanab.blockwallet.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByRPC;
+import net.corda.core.flows.StartableByService;
+import net.corda.koalanab.blockwallet.services.KYCDocumentService;
+import net.corda.koalanab.blockwallet.states.KYCRecord;
+import net.corda.koalanab.blockwallet.states.KYCState;
+
+/**
+ * Returns the personal details of an account's latest KYC, whether they are carried on-ledger or anchored by hash and
+ * kept in the node's KYC document store.
+ */
+@StartableByRPC
+@StartableByService
+public class KYCRecordFlow extends FlowLogic<KYCRecord> {
+
+    private final long accountId;
+
+    public KYCRecordFlow(long accountId) {
+        this.accountId = accountId;
+    }
+
+    @Suspendable
+    @Override
+    public KYCRecord call() throws FlowException {
+        final KYCState kyc = subFlow(new KYCLookupFlow(accountId)).getState().getData();
+        if (!kyc.hasOffLedgerPayload()) {
+            return KYCRecord.of(kyc);
+        }
+        final KYCRecord record = getServiceHub().cordaService(KYCDocumentService.class).load(kyc.getPayloadHash());
+        if (record == null) {
+            throw new FlowException("The KYC record " + kyc.getPayloadHash() + " of account " + accountId + " is not held by this node");
+        }
+        return record;
+    }
+}
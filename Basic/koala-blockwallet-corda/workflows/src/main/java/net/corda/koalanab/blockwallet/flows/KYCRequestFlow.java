@@ -3,8 +3,12 @@ package net.corda.koalanab.blockwallet.flows;
 import co.paralleluniverse.fibers.Suspendable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
-import net.corda.koalanab.blockwallet.contracts.CashInContract;
 import net.corda.koalanab.blockwallet.contracts.KYCContract;
+import net.corda.koalanab.blockwallet.services.AdmissionControlService;
+import net.corda.koalanab.blockwallet.services.ClientRequestService;
+import net.corda.koalanab.blockwallet.services.NotarySelectionService;
+import net.corda.koalanab.blockwallet.services.KYCDocumentService;
+import net.corda.koalanab.blockwallet.states.KYCRecord;
 import net.corda.koalanab.blockwallet.states.KYCState;
 import net.corda.core.contracts.Command;
 import net.corda.core.contracts.ContractState;
@@ -17,18 +21,25 @@ import net.corda.core.transactions.TransactionBuilder;
 import net.corda.core.utilities.ProgressTracker;
 import net.corda.core.utilities.ProgressTracker.Step;
 
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import static net.corda.core.contracts.ContractsDSL.requireThat;
 
 /**
  * Generated by the Banker or Affiliate
+ *
+ * With offLedger set, the personal details are not put on the ledger: the KYCState only anchors the hash of the
+ * salted [KYCRecord], which is sent to the receiver over the flow session and kept in both nodes' [KYCDocumentService]
+ * once the transaction is finalised. The receiver checks the record against the anchored hash before signing. Version 2 of the flow always sends the
+ * (possibly empty) off-ledger payload; a version 1 counterparty can only take part in on-ledger requests.
  */
 public class KYCRequestFlow {
-    @InitiatingFlow
+    @InitiatingFlow(version = 2)
     @StartableByRPC
     @StartableByService
-    public static class KYCRequestInitiator extends FlowLogic<SignedTransaction> {
+    public static class KYCRequestInitiator extends MeteredFlowLogic<SignedTransaction> {
 
         private final Step GENERATING_INIT = new Step("Init transaction based on new IOU.");
         private final Step GENERATING_TRANSACTION = new Step("Generating transaction based on new IOU.");
@@ -75,12 +86,41 @@ public class KYCRequestFlow {
         private final String occupation;
         private final String income;
         private final Party otherParty;
+        private final boolean offLedger;
+        // optional, see ClientRequestService
+        private final String clientRequestId;
+        // the transaction this flow signed, if it got that far; see ClientRequestService.release
+        private SecureHash signedTxId = null;
 
         public KYCRequestInitiator(
             long accountId, String lastname, String firstname, String middlename, String birthday,
             String permanentAddress, String currentAddress, String fathername, String mothername, 
             String gender, String contactNo, String maritalStatus, String nationality, 
             String occupation, String income, Party otherParty
+        ){
+            this(accountId, lastname, firstname, middlename, birthday, permanentAddress, currentAddress, fathername,
+                    mothername, gender, contactNo, maritalStatus, nationality, occupation, income, otherParty, false);
+        }
+
+        public KYCRequestInitiator(
+            long accountId, String lastname, String firstname, String middlename, String birthday,
+            String permanentAddress, String currentAddress, String fathername, String mothername,
+            String gender, String contactNo, String maritalStatus, String nationality,
+            String occupation, String income, Party otherParty, boolean offLedger
+        ){
+            this(accountId, lastname, firstname, middlename, birthday, permanentAddress, currentAddress, fathername,
+                    mothername, gender, contactNo, maritalStatus, nationality, occupation, income, otherParty, offLedger,
+                    null);
+        }
+
+        /**
+         * Submits the KYC at most once per client request id; a resubmission returns the original transaction.
+         */
+        public KYCRequestInitiator(
+            long accountId, String lastname, String firstname, String middlename, String birthday,
+            String permanentAddress, String currentAddress, String fathername, String mothername,
+            String gender, String contactNo, String maritalStatus, String nationality,
+            String occupation, String income, Party otherParty, boolean offLedger, String clientRequestId
         ){
             this.accountId = accountId;
             this.lastname = lastname;
@@ -98,6 +138,8 @@ public class KYCRequestFlow {
             this.occupation = occupation;
             this.income = income;
             this.otherParty = otherParty;
+            this.offLedger = offLedger;
+            this.clientRequestId = clientRequestId;
         }
 
         @Override
@@ -110,12 +152,60 @@ public class KYCRequestFlow {
          */
         @Suspendable
         @Override
-        public SignedTransaction call() throws FlowException {
+        protected SignedTransaction run() throws FlowException {
+            final AdmissionControlService admission = getServiceHub().cordaService(AdmissionControlService.class);
+            await(admission.admit(this, AdmissionControlService.Priority.NORMAL));
+            try {
+                return submit();
+            } finally {
+                admission.release(this);
+            }
+        }
+
+        @Suspendable
+        private SignedTransaction submit() throws FlowException {
+            if (clientRequestId == null) {
+                return send();
+            }
+            // A retried submission gets the transaction of the first one back instead of a duplicate.
+            final ClientRequestService clientRequests = getServiceHub().cordaService(ClientRequestService.class);
+            final SignedTransaction original = clientRequests.begin(this, clientRequestId, ClientRequestService.fingerprint(accountId, lastname, firstname, middlename,
+                    birthday, permanentAddress, currentAddress, fathername, mothername, gender, contactNo, maritalStatus,
+                    nationality, occupation, income, otherParty, offLedger));
+            if (original != null) {
+                return original;
+            }
+            final SignedTransaction notarisedTx;
+            try {
+                notarisedTx = send();
+            } catch (FlowException | RuntimeException e) {
+                // Frees the id unless the transaction was notarised before the flow failed.
+                await(clientRequests.release(this, clientRequestId, signedTxId));
+                throw e;
+            }
+            clientRequests.complete(this, clientRequestId, notarisedTx.getId());
+            return notarisedTx;
+        }
+
+        @Suspendable
+        private SignedTransaction send() throws FlowException {
             // Obtain a reference to the notary we want to use.
 
             progressTracker.setCurrentStep(GENERATING_INIT);
-            final Party notary = getServiceHub().getNetworkMapCache().getNotaryIdentities().get(0);
-            final KYCState currentState = new KYCState(
+            final Party notary = getServiceHub().cordaService(NotarySelectionService.class).select(KYCState.class);
+            final KYCRecord record;
+            try {
+                // Only an anchored record needs a salt, to keep its hash from confirming guessed details.
+                record = new KYCRecord(accountId, lastname, firstname, middlename, birthday, permanentAddress,
+                        currentAddress, fathername, mothername, gender, contactNo, maritalStatus, nationality,
+                        occupation, income, offLedger ? KYCRecord.newSalt() : null);
+            } catch (IllegalArgumentException e) {
+                throw new FlowException(e.getMessage());
+            }
+            final KYCState currentState = offLedger
+                    ? new KYCState(new UniqueIdentifier(), accountId, null, null, null, null, null, null, null, null,
+                            null, null, null, null, null, null, getOurIdentity(), otherParty, record.hash())
+                    : new KYCState(
                 new UniqueIdentifier(),
                 accountId,
                 lastname,
@@ -133,13 +223,14 @@ public class KYCRequestFlow {
                 occupation,
                 income,
                 getOurIdentity(),
-                otherParty
+                otherParty,
+                null
             );
 
             // Stage 1.
             progressTracker.setCurrentStep(GENERATING_TRANSACTION);
-            final Command<CashInContract.Commands.Send> txCommand = new Command<>(
-                    new CashInContract.Commands.Send(),
+            final Command<KYCContract.Commands.Send> txCommand = new Command<>(
+                    new KYCContract.Commands.Send(),
                     ImmutableList.of(currentState.getSender().getOwningKey(), currentState.getReceiver().getOwningKey()));
 
             final TransactionBuilder txBuilder = new TransactionBuilder(notary)
@@ -155,18 +246,31 @@ public class KYCRequestFlow {
             progressTracker.setCurrentStep(SIGNING_TRANSACTION);
             // Sign the transaction.
             final SignedTransaction partSignedTx = getServiceHub().signInitialTransaction(txBuilder);
+            signedTxId = partSignedTx.getId();
 
             // Stage 4.
             progressTracker.setCurrentStep(GATHERING_SIGS);
             // Send the state to the counterparty, and receive it back with their signature.
             FlowSession otherPartySession = initiateFlow(currentState.getReceiver());
+            if (otherPartySession.getCounterpartyFlowInfo().getFlowVersion() >= 2) {
+                otherPartySession.send(offLedger ? Collections.singletonList(record) : Collections.<KYCRecord>emptyList());
+            } else if (offLedger) {
+                throw new FlowException(otherParty + " cannot receive off-ledger KYC records.");
+            }
             final SignedTransaction fullySignedTx = subFlow(
                     new CollectSignaturesFlow(partSignedTx, ImmutableSet.of(otherPartySession), CollectSignaturesFlow.Companion.tracker()));
 
             // Stage 5.
             progressTracker.setCurrentStep(FINALISING_TRANSACTION);
             // Notarise and record the transaction in both parties' vaults.
-            return subFlow(new FinalityFlow(fullySignedTx, ImmutableSet.of(otherPartySession)));
+            final long finalityStart = System.nanoTime();
+            final SignedTransaction notarisedTx = subFlow(new FinalityFlow(fullySignedTx, ImmutableSet.of(otherPartySession)));
+            getServiceHub().cordaService(NotarySelectionService.class).recordFinality(notary, finalityStart);
+            // Kept only once the KYC is on the ledger, so a refused or failed request leaves no personal data behind.
+            if (offLedger) {
+                getServiceHub().cordaService(KYCDocumentService.class).store(record);
+            }
+            return notarisedTx;
         }
     }
 
@@ -182,6 +286,17 @@ public class KYCRequestFlow {
         @Suspendable
         @Override
         public SignedTransaction call() throws FlowException {
+            final List<KYCRecord> payload = otherPartySession.getCounterpartyFlowInfo().getFlowVersion() >= 2
+                    ? otherPartySession.receive(List.class).unwrap(records -> {
+                        final List<KYCRecord> checked = new ArrayList<>();
+                        for (Object record : records) {
+                            if (!(record instanceof KYCRecord)) throw new FlowException("Unexpected KYC payload " + record);
+                            checked.add((KYCRecord) record);
+                        }
+                        return checked;
+                    })
+                    : Collections.emptyList();
+
             class SignTxFlow extends SignTransactionFlow {
                 private SignTxFlow(FlowSession otherPartyFlow, ProgressTracker progressTracker) {
                     super(otherPartyFlow, progressTracker);
@@ -192,14 +307,28 @@ public class KYCRequestFlow {
                     requireThat(require -> {
                         ContractState output = stx.getTx().getOutputs().get(0).getData();
                         require.using("This must be an IOU transaction.", output instanceof KYCState);
+                        final KYCState kyc = (KYCState) output;
+                        if (kyc.hasOffLedgerPayload()) {
+                            require.using("The off-ledger KYC record must be sent with the transaction.", payload.size() == 1);
+                            final KYCRecord record = payload.get(0);
+                            require.using("The KYC record must be salted.", record.getSalt() != null);
+                            require.using("The KYC record must match the anchored hash.", record.hash().equals(kyc.getPayloadHash()));
+                            require.using("The KYC record must be of the anchored account.", record.getAccountId() == kyc.getAccountId());
+                        } else {
+                            require.using("An on-ledger KYC must not come with an off-ledger record.", payload.isEmpty());
+                        }
                         return null;
                     });
                 }
             }
             final SignTxFlow signTxFlow = new SignTxFlow(otherPartySession, SignTransactionFlow.Companion.tracker());
             final SecureHash txId = subFlow(signTxFlow).getId();
-
-            return subFlow(new ReceiveFinalityFlow(otherPartySession, txId));
+            final SignedTransaction notarisedTx = subFlow(new ReceiveFinalityFlow(otherPartySession, txId));
+            // Only a record that passed checkTransaction, and whose KYC made it to the ledger, is kept.
+            for (KYCRecord record : payload) {
+                getServiceHub().cordaService(KYCDocumentService.class).store(record);
+            }
+            return notarisedTx;
         }
     }
 }
@@ -0,0 +1,145 @@
+package net.corda.koalanab.blockwallet.flows;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.FlowException;
+import net.corda.core.node.ServiceHub;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.Builder;
+import net.corda.core.node.services.vault.ColumnPredicate;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+import net.corda.core.node.services.vault.SortAttribute;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Keyset pagination over the vault, ordered by (recorded time, transaction id, output index).
+ *
+ * The cursor is the sort key of the last state handed out. The next page is read with a recorded time bound at the
+ * cursor instead of an ever-growing offset, so every page costs the same however deep the client has paged. Only the
+ * few states recorded at exactly the cursor's time are read again and skipped.
+ */
+final class KeysetPager {
+
+    static final int MAX_PAGE_SIZE = 500;
+
+    private static final Sort ORDER = new Sort(ImmutableList.of(
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.VaultStateAttribute.RECORDED_TIME), Sort.Direction.ASC),
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.VaultStateAttribute.STATE_REF_TXN_ID), Sort.Direction.ASC),
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.VaultStateAttribute.STATE_REF_INDEX), Sort.Direction.ASC)));
+
+    private KeysetPager() {
+    }
+
+    static void checkPageSize(int pageSize) {
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("The page size must be between 1 and " + MAX_PAGE_SIZE + ".");
+        }
+    }
+
+    /**
+     * Reads the page that follows the cursor (or the first page for a null cursor).
+     *
+     * @param filter the caller's filter; the status it asks for is the status that is listed.
+     * @param from inclusive lower bound on recorded time, or null.
+     * @param to exclusive upper bound on recorded time, or null.
+     */
+    static <T extends ContractState> StatePage<T> page(ServiceHub serviceHub, Class<T> stateType, QueryCriteria filter,
+                                                       Instant from, Instant to, String cursor, int pageSize) throws FlowException {
+        final Key after = cursor == null ? null : Key.decode(cursor);
+
+        Instant lowerBound = from;
+        if (after != null && (lowerBound == null || after.recordedTime.isAfter(lowerBound))) {
+            lowerBound = after.recordedTime;
+        }
+        QueryCriteria criteria = filter;
+        if (lowerBound != null) {
+            criteria = criteria.and(recordedTime(Builder.greaterThanOrEqual(lowerBound)));
+        }
+        if (to != null) {
+            criteria = criteria.and(recordedTime(Builder.lessThan(to)));
+        }
+
+        // One extra state tells us whether there is a next page.
+        final int fetchSize = pageSize + 1;
+        final List<StateAndRef<T>> states = new ArrayList<>(fetchSize);
+        Key last = null;
+        for (int pageNumber = 1; ; pageNumber++) {
+            final Vault.Page<T> page = serviceHub.getVaultService()
+                    .queryBy(stateType, criteria, new PageSpecification(pageNumber, fetchSize), ORDER);
+            for (int i = 0; i < page.getStates().size() && states.size() < fetchSize; i++) {
+                final Key key = new Key(page.getStatesMetadata().get(i));
+                if (after == null || key.compareTo(after) > 0) {
+                    states.add(page.getStates().get(i));
+                    if (states.size() == pageSize) last = key;
+                }
+            }
+            // Another round trip is only needed when states tied with the cursor filled this one.
+            if (states.size() == fetchSize || page.getStates().size() < fetchSize) break;
+        }
+
+        if (states.size() <= pageSize) {
+            return new StatePage<>(states, null);
+        }
+        return new StatePage<>(new ArrayList<>(states.subList(0, pageSize)), last.encode());
+    }
+
+    private static QueryCriteria recordedTime(ColumnPredicate<Instant> predicate) {
+        // ALL adds no status predicate of its own, so the status asked for by the filter still applies.
+        return new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.ALL).withTimeCondition(
+                new QueryCriteria.TimeCondition(QueryCriteria.TimeInstantType.RECORDED, predicate));
+    }
+
+    private static final class Key implements Comparable<Key> {
+        private final Instant recordedTime;
+        private final String txId;
+        private final int index;
+
+        private Key(Instant recordedTime, String txId, int index) {
+            this.recordedTime = recordedTime;
+            this.txId = txId;
+            this.index = index;
+        }
+
+        private Key(Vault.StateMetadata metadata) {
+            this(metadata.getRecordedTime(), metadata.getRef().getTxhash().toString(), metadata.getRef().getIndex());
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int result = recordedTime.compareTo(other.recordedTime);
+            if (result == 0) result = txId.compareTo(other.txId);
+            if (result == 0) result = Integer.compare(index, other.index);
+            return result;
+        }
+
+        private String encode() {
+            final String raw = recordedTime.getEpochSecond() + ":" + recordedTime.getNano() + ":" + txId + ":" + index;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        private static Key decode(String cursor) throws FlowException {
+            try {
+                final String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+                if (parts.length != 4) {
+                    throw new IllegalArgumentException("Expected 4 parts but got " + parts.length);
+                }
+                final Instant recordedTime = Instant.ofEpochSecond(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+                // Parsing through StateRef's hash type rejects anything that is not a transaction id.
+                final StateRef ref = new StateRef(SecureHash.parse(parts[2]), Integer.parseInt(parts[3]));
+                return new Key(recordedTime, ref.getTxhash().toString(), ref.getIndex());
+            } catch (IllegalArgumentException e) {
+                throw new FlowException("Invalid page cursor: " + cursor, e);
+            }
+        }
+    }
+}
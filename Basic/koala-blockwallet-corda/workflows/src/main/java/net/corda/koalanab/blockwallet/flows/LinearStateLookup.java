@@ -0,0 +1,91 @@
+package net.corda.koalanab.blockwallet.flows;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.contracts.LinearState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.node.ServiceHub;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+import net.corda.core.node.services.vault.SortAttribute;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Looks unconsumed linear states up by linear id, including states recorded before their class became a LinearState.
+ *
+ * The vault only keeps linear ids for states recorded as a LinearState, so LinearStateQueryCriteria cannot see older
+ * loans and KYCs although they carry a linear id. Ids it does not find are looked for by paging through the
+ * unconsumed states of the type and matching the linear id in memory; this costs a scan, but only for legacy states
+ * and ids that do not exist.
+ */
+final class LinearStateLookup {
+
+    static final int SCAN_PAGE_SIZE = 200;
+
+    private static final Sort BY_STATE_REF = new Sort(ImmutableList.of(
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.VaultStateAttribute.STATE_REF_TXN_ID), Sort.Direction.ASC),
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.VaultStateAttribute.STATE_REF_INDEX), Sort.Direction.ASC)));
+
+    private LinearStateLookup() {
+    }
+
+    /**
+     * Returns the unconsumed state with the linear id, or null if there is none.
+     */
+    static <T extends LinearState> StateAndRef<T> find(ServiceHub serviceHub, Class<T> stateType, UUID linearId) {
+        return findAll(serviceHub, stateType, ImmutableList.of(linearId)).get(linearId);
+    }
+
+    /**
+     * Returns the unconsumed states with the linear ids, keyed by linear id. Ids without a state are left out.
+     */
+    static <T extends LinearState> Map<UUID, StateAndRef<T>> findAll(ServiceHub serviceHub, Class<T> stateType,
+                                                                   Collection<UUID> linearIds) {
+        final Map<UUID, StateAndRef<T>> found = new HashMap<>();
+        if (linearIds.isEmpty()) {
+            return found;
+        }
+        final QueryCriteria byLinearId = new QueryCriteria.LinearStateQueryCriteria(
+                null, new ArrayList<>(linearIds), null, Vault.StateStatus.UNCONSUMED);
+        final List<StateAndRef<T>> linear = serviceHub.getVaultService()
+                .queryBy(stateType, byLinearId, new PageSpecification(1, Math.max(linearIds.size(), 1))).getStates();
+        for (StateAndRef<T> state : linear) {
+            found.put(state.getState().getData().getLinearId().getId(), state);
+        }
+
+        final Set<UUID> missing = new HashSet<>(linearIds);
+        missing.removeAll(found.keySet());
+        if (!missing.isEmpty()) {
+            scan(serviceHub, stateType, missing, found);
+        }
+        return found;
+    }
+
+    private static <T extends LinearState> void scan(ServiceHub serviceHub, Class<T> stateType, Set<UUID> missing,
+                                                     Map<UUID, StateAndRef<T>> found) {
+        final QueryCriteria unconsumed = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED);
+        for (int pageNumber = 1; !missing.isEmpty(); pageNumber++) {
+            final List<StateAndRef<T>> page = serviceHub.getVaultService()
+                    .queryBy(stateType, unconsumed, new PageSpecification(pageNumber, SCAN_PAGE_SIZE), BY_STATE_REF)
+                    .getStates();
+            for (StateAndRef<T> state : page) {
+                final UUID linearId = state.getState().getData().getLinearId().getId();
+                if (missing.remove(linearId)) {
+                    found.put(linearId, state);
+                }
+            }
+            if (page.size() < SCAN_PAGE_SIZE) {
+                return;
+            }
+        }
+    }
+}
@@ -4,7 +4,11 @@ import co.paralleluniverse.fibers.Suspendable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import net.corda.koalanab.blockwallet.contracts.LoanContract;
+import net.corda.koalanab.blockwallet.services.CreditScoreService;
+import net.corda.koalanab.blockwallet.services.AdmissionControlService;
+import net.corda.koalanab.blockwallet.services.NotarySelectionService;
 import net.corda.koalanab.blockwallet.states.LoanState;
+import net.corda.koalanab.blockwallet.states.LoanStatus;
 import net.corda.core.contracts.Command;
 import net.corda.core.contracts.ContractState;
 import net.corda.core.contracts.StateAndRef;
@@ -20,8 +24,8 @@ import net.corda.core.utilities.ProgressTracker.Step;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.Date;
-import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import static net.corda.core.contracts.ContractsDSL.requireThat;
 
@@ -35,15 +39,21 @@ import static net.corda.core.contracts.ContractsDSL.requireThat;
  * practice we would recommend splitting up the various stages of the flow into sub-routines.
  *
  * All methods called within the [FlowLogic] sub-class need to be annotated with the @Suspendable annotation.
+ *
+ * When no credit score is given, the flow fetches it from the [CreditScoreService]. The flow is suspended while the
+ * score is pending, so the lookup holds neither a flow worker thread nor the caller's RPC thread.
+ *
+ * If the loan is updated concurrently, the decision is retried on the loan's latest version, see [LoanConflictRetry].
  */
 public class LoanApproveFlow {
     @InitiatingFlow
     @StartableByRPC
     @StartableByService
-    public static class LoanApproveInitiator extends FlowLogic<SignedTransaction> {
+    public static class LoanApproveInitiator extends MeteredFlowLogic<SignedTransaction> {
 
         private final Step GENERATING_INIT = new Step("Init transaction based on new IOU.");
         private final Step GENERATING_INIT2 = new Step("Init transaction based on new IOU.. 2");
+        private final Step FETCHING_CREDIT_SCORE = new Step("Fetching the borrower's credit score.");
         private final Step GENERATING_INIT3 = new Step("Init transaction based on new IOU... 3");
         private final Step GENERATING_TRANSACTION = new Step("Generating transaction based on new IOU.");
         private final Step VERIFYING_TRANSACTION = new Step("Verifying contract constraints.");
@@ -67,6 +77,7 @@ public class LoanApproveFlow {
         private final ProgressTracker progressTracker = new ProgressTracker(
                 GENERATING_INIT,
                 GENERATING_INIT2,
+                FETCHING_CREDIT_SCORE,
                 GENERATING_INIT3,
                 GENERATING_TRANSACTION,
                 VERIFYING_TRANSACTION,
@@ -89,6 +100,13 @@ public class LoanApproveFlow {
             this.creditScore = creditScore;
         }
 
+        /**
+         * Approves or rejects a loan with the borrower's credit score fetched from the [CreditScoreService].
+         */
+        public LoanApproveInitiator(UUID loanId, boolean approve, String remarks) {
+            this(loanId, approve, remarks, null);
+        }
+
         @Override
         public ProgressTracker getProgressTracker() {
             return progressTracker;
@@ -99,51 +117,68 @@ public class LoanApproveFlow {
          */
         @Suspendable
         @Override
-        public SignedTransaction call() throws FlowException {
-            // Obtain a reference to the notary we want to use.
-            progressTracker.setCurrentStep(GENERATING_INIT);
-            List<StateAndRef<LoanState>> auctionStateAndRefs = getServiceHub().getVaultService()
-                    .queryBy(LoanState.class).getStates();
+        protected SignedTransaction run() throws FlowException {
+            final AdmissionControlService admission = getServiceHub().cordaService(AdmissionControlService.class);
+            await(admission.admit(this, AdmissionControlService.Priority.HIGH));
+            try {
+                return decideLatest();
+            } finally {
+                admission.release(this);
+            }
+        }
 
-            progressTracker.setCurrentStep(GENERATING_INIT2);
-            StateAndRef<LoanState> inputStateAndRef = auctionStateAndRefs.stream().filter(auctionStateAndRef -> {
-                LoanState loanState = auctionStateAndRef.getState().getData();
-                return loanState.getLinearId().getId().equals(this.loanId);
-            }).findAny().orElseThrow(() -> new IllegalArgumentException("Loan Not Found, wa nakitan"));
+        @Suspendable
+        private SignedTransaction decideLatest() throws FlowException {
+            final LoanConflictRetry retry = LoanConflictRetry.of(getServiceHub());
+            String creditScore = this.creditScore;
+            for (int attempt = 1; ; attempt++) {
+                progressTracker.setCurrentStep(GENERATING_INIT);
+                final StateAndRef<LoanState> inputStateAndRef = subFlow(new ResolveLoanFlow(this.loanId));
+                // Checked on every attempt: the update that beat an earlier attempt may have been a decision.
+                final LoanStatus status = LoanStatus.of(inputStateAndRef.getState().getData());
+                if (status != LoanStatus.REQUESTED) {
+                    throw new FlowException("Loan " + this.loanId + " was already decided, it is " + status + ".");
+                }
+
+                if (creditScore == null) {
+                    progressTracker.setCurrentStep(FETCHING_CREDIT_SCORE);
+                    final LoanState inputState = inputStateAndRef.getState().getData();
+                    creditScore = await(new CreditScoreOperation(getServiceHub().cordaService(CreditScoreService.class),
+                            inputState.getWalletAccountId(), inputState.getKycId() == null ? null : inputState.getKycId().getId()));
+                    if (creditScore == null) {
+                        throw new FlowException("No credit score for wallet account " + inputState.getWalletAccountId());
+                    }
+                }
 
+                try {
+                    LoanConflictRetry.reserve(this, inputStateAndRef);
+                    return decide(inputStateAndRef, creditScore);
+                } catch (FlowException e) {
+                    // Approved, rejected or paid concurrently: decide on the loan's latest version instead.
+                    sleep(retry.onConflict(this, inputStateAndRef, e, attempt));
+                }
+            }
+        }
+
+        @Suspendable
+        private SignedTransaction decide(StateAndRef<LoanState> inputStateAndRef, String creditScore) throws FlowException {
+            progressTracker.setCurrentStep(GENERATING_INIT2);
             LoanState inputState = inputStateAndRef.getState().getData();
 
-            final Party notary = getServiceHub().getNetworkMapCache().getNotaryIdentities().get(0);
+            // The loan can only be spent through the notary it is already assigned to.
+            final Party notary = inputStateAndRef.getState().getNotary();
             String dateApprove = (this.approve)? new Date().toString(): null;
             String dateReject = (!this.approve)? new Date().toString(): null;
 
             progressTracker.setCurrentStep(GENERATING_INIT3);
             // objects
-            final LoanState currentState = new LoanState(
-                inputState.getLinearId(),
-                inputState.getWalletAccountId(),
-                inputState.getPurpose(),
-                inputState.getAmount(),
-                inputState.getPaymentTerms(),
-                inputState.getOccupation(),
-                inputState.getGrossIncome(),
-                inputState.getKycId(),
-                this.approve,
-                dateApprove,
-                inputState.getDateRequested(),
-                dateReject,
-                this.remarks,
-                this.creditScore,
-                inputState.getPaidRemarks(),
-                inputState.getDatePaid(),
-                inputState.getSender(),
-                inputState.getReceiver()
-            );
+            final LoanState currentState = inputState.withDecision(
+                    this.approve, dateApprove, dateReject, this.remarks, creditScore);
 
             // Stage 1.
             progressTracker.setCurrentStep(GENERATING_TRANSACTION);
-            final Command<LoanContract.Commands.Request> txCommand = new Command<>(
-                    new LoanContract.Commands.Request(),
+            final Command<LoanContract.Commands> txCommand = new Command<>(
+                    this.approve ? new LoanContract.Commands.Approve() : new LoanContract.Commands.Reject(),
                     ImmutableList.of(currentState.getSender().getOwningKey(), currentState.getReceiver().getOwningKey()));
 
             final TransactionBuilder txBuilder = new TransactionBuilder(notary)
@@ -171,7 +206,29 @@ public class LoanApproveFlow {
             // Stage 5.
             progressTracker.setCurrentStep(FINALISING_TRANSACTION);
             // Notarise and record the transaction in both parties' vaults.
-            return subFlow(new FinalityFlow(fullySignedTx, ImmutableSet.of(otherPartySession)));
+            final long finalityStart = System.nanoTime();
+            final SignedTransaction notarisedTx = subFlow(new FinalityFlow(fullySignedTx, ImmutableSet.of(otherPartySession)));
+            getServiceHub().cordaService(NotarySelectionService.class).recordFinality(notary, finalityStart);
+            return notarisedTx;
+        }
+    }
+
+    // A named class rather than a lambda so that the flow can be checkpointed while the score is pending.
+    private static class CreditScoreOperation implements FlowExternalAsyncOperation<String> {
+
+        private final CreditScoreService creditScoreService;
+        private final long walletAccountId;
+        private final UUID kycId;
+
+        private CreditScoreOperation(CreditScoreService creditScoreService, long walletAccountId, UUID kycId) {
+            this.creditScoreService = creditScoreService;
+            this.walletAccountId = walletAccountId;
+            this.kycId = kycId;
+        }
+
+        @Override
+        public CompletableFuture<String> execute(String deduplicationId) {
+            return creditScoreService.getScore(walletAccountId, kycId);
         }
     }
 
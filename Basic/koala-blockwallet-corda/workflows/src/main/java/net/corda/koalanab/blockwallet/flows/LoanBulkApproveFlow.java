@@ -0,0 +1,330 @@
+package net.corda.koalanab.blockwallet.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import net.corda.core.contracts.Command;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.TransactionState;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.StatesNotAvailableException;
+import net.corda.core.serialization.CordaSerializable;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.ProgressTracker;
+import net.corda.core.utilities.ProgressTracker.Step;
+import net.corda.koalanab.blockwallet.contracts.LoanContract;
+import net.corda.koalanab.blockwallet.services.AdmissionControlService;
+import net.corda.koalanab.blockwallet.services.NotarySelectionService;
+import net.corda.koalanab.blockwallet.states.LoanState;
+import net.corda.koalanab.blockwallet.states.LoanStatus;
+
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static net.corda.core.contracts.ContractsDSL.requireThat;
+
+/**
+ * Approves or rejects many loans at once.
+ *
+ * The loans are resolved together and grouped by counterparty. Each group is settled in transactions of at
+ * most chunkSize loans under a single Approve command, so a whole chunk costs one signature round trip and one
+ * notarisation. Loans that are no longer awaiting a decision are skipped, and the loans of a chunk are soft-locked before
+ * its transaction is built so that concurrent flows on this node fail fast instead of at the notary. A failing chunk
+ * does not stop the others; the outcome of every loan is reported back.
+ */
+public class LoanBulkApproveFlow {
+
+    public static final int DEFAULT_CHUNK_SIZE = 50;
+
+    @InitiatingFlow
+    @StartableByRPC
+    @StartableByService
+    public static class LoanBulkApproveInitiator extends MeteredFlowLogic<Map<UUID, LoanDecisionOutcome>> {
+
+        private final Step RESOLVING_LOANS = new Step("Resolving the loans to decide.");
+        private final Step GENERATING_TRANSACTION = new Step("Generating transaction for the next chunk of loans.");
+        private final Step VERIFYING_TRANSACTION = new Step("Verifying contract constraints.");
+        private final Step SIGNING_TRANSACTION = new Step("Signing transaction with our private key.");
+        private final Step GATHERING_SIGS = new Step("Gathering the counterparty's signature.");
+        private final Step FINALISING_TRANSACTION = new Step("Obtaining notary signature and recording transaction.");
+
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                RESOLVING_LOANS,
+                GENERATING_TRANSACTION,
+                VERIFYING_TRANSACTION,
+                SIGNING_TRANSACTION,
+                GATHERING_SIGS,
+                FINALISING_TRANSACTION
+        );
+
+        private final Map<UUID, LoanDecision> decisions;
+        private final int chunkSize;
+
+        public LoanBulkApproveInitiator(Map<UUID, LoanDecision> decisions, int chunkSize) {
+            if (chunkSize < 1) {
+                throw new IllegalArgumentException("The chunk size must be at least 1.");
+            }
+            this.decisions = decisions;
+            this.chunkSize = chunkSize;
+        }
+
+        public LoanBulkApproveInitiator(Map<UUID, LoanDecision> decisions) {
+            this(decisions, DEFAULT_CHUNK_SIZE);
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        @Suspendable
+        @Override
+        protected Map<UUID, LoanDecisionOutcome> run() throws FlowException {
+            final AdmissionControlService admission = getServiceHub().cordaService(AdmissionControlService.class);
+            await(admission.admit(this, AdmissionControlService.Priority.HIGH));
+            try {
+                return decideAll();
+            } finally {
+                admission.release(this);
+            }
+        }
+
+        @Suspendable
+        private Map<UUID, LoanDecisionOutcome> decideAll() throws FlowException {
+            final Map<UUID, LoanDecisionOutcome> outcomes = new LinkedHashMap<>();
+            if (decisions.isEmpty()) {
+                return outcomes;
+            }
+
+            progressTracker.setCurrentStep(RESOLVING_LOANS);
+            // Also finds loans recorded before LoanState was a LinearState.
+            final Map<UUID, StateAndRef<LoanState>> found =
+                    LinearStateLookup.findAll(getServiceHub(), LoanState.class, decisions.keySet());
+
+            // A transaction can only spend states of one notary, so loans are grouped by counterparty and notary.
+            final Map<Party, Map<Party, List<StateAndRef<LoanState>>>> loansByCounterparty = new LinkedHashMap<>();
+            for (UUID loanId : decisions.keySet()) {
+                final StateAndRef<LoanState> loan = found.get(loanId);
+                if (loan == null) {
+                    outcomes.put(loanId, LoanDecisionOutcome.notFound());
+                    continue;
+                }
+                final LoanStatus status = LoanStatus.of(loan.getState().getData());
+                if (status != LoanStatus.REQUESTED) {
+                    outcomes.put(loanId, LoanDecisionOutcome.skipped("The loan was already decided, it is " + status + "."));
+                    continue;
+                }
+                final Party counterparty = counterpartyOf(loan.getState().getData());
+                if (counterparty == null) {
+                    outcomes.put(loanId, LoanDecisionOutcome.failed("We are not a party to this loan."));
+                } else {
+                    loansByCounterparty.computeIfAbsent(counterparty, party -> new LinkedHashMap<>())
+                            .computeIfAbsent(loan.getState().getNotary(), notary -> new ArrayList<>()).add(loan);
+                }
+            }
+
+            for (Map.Entry<Party, Map<Party, List<StateAndRef<LoanState>>>> group : loansByCounterparty.entrySet()) {
+                for (List<StateAndRef<LoanState>> groupLoans : group.getValue().values()) {
+                    for (int from = 0; from < groupLoans.size(); from += chunkSize) {
+                        final List<StateAndRef<LoanState>> chunk =
+                                reserve(groupLoans.subList(from, Math.min(from + chunkSize, groupLoans.size())), outcomes);
+                        if (chunk.isEmpty()) {
+                            continue;
+                        }
+                        try {
+                            final SignedTransaction stx = settle(group.getKey(), chunk);
+                            for (StateAndRef<LoanState> loan : chunk) {
+                                final UUID loanId = loan.getState().getData().getLinearId().getId();
+                                outcomes.put(loanId, LoanDecisionOutcome.decided(decisions.get(loanId).isApprove(), stx.getId()));
+                            }
+                        } catch (FlowException e) {
+                            getLogger().warn("Bulk loan decision failed for a chunk with " + group.getKey(), e);
+                            for (StateAndRef<LoanState> loan : chunk) {
+                                outcomes.put(loan.getState().getData().getLinearId().getId(), LoanDecisionOutcome.failed(e.getMessage()));
+                            }
+                        }
+                    }
+                }
+            }
+            return outcomes;
+        }
+
+        /**
+         * Soft-locks the chunk's loans so that other flows on this node cannot spend them while the chunk is settled.
+         * A loan another flow holds is reported as failed and left out; the rest of the chunk goes ahead.
+         */
+        private List<StateAndRef<LoanState>> reserve(List<StateAndRef<LoanState>> loans,
+                                                     Map<UUID, LoanDecisionOutcome> outcomes) {
+            final List<StateAndRef<LoanState>> reserved = new ArrayList<>(loans.size());
+            for (StateAndRef<LoanState> loan : loans) {
+                try {
+                    LoanConflictRetry.reserve(this, loan);
+                    reserved.add(loan);
+                } catch (StatesNotAvailableException e) {
+                    outcomes.put(loan.getState().getData().getLinearId().getId(),
+                            LoanDecisionOutcome.failed("The loan is being updated by another flow."));
+                }
+            }
+            return reserved;
+        }
+
+        @Suspendable
+        private SignedTransaction settle(Party counterparty, List<StateAndRef<LoanState>> chunk) throws FlowException {
+            progressTracker.setCurrentStep(GENERATING_TRANSACTION);
+            final Party notary = chunk.get(0).getState().getNotary();
+            final List<PublicKey> signers = ImmutableList.of(getOurIdentity().getOwningKey(), counterparty.getOwningKey());
+            final TransactionBuilder txBuilder = new TransactionBuilder(notary);
+            final String decisionDate = new Date().toString();
+            boolean approves = false;
+            boolean rejects = false;
+            for (StateAndRef<LoanState> loan : chunk) {
+                final LoanState input = loan.getState().getData();
+                final LoanDecision decision = decisions.get(input.getLinearId().getId());
+                approves |= decision.isApprove();
+                rejects |= !decision.isApprove();
+                txBuilder.addInputState(loan);
+                txBuilder.addOutputState(input.withDecision(
+                        decision.isApprove(),
+                        decision.isApprove() ? decisionDate : null,
+                        decision.isApprove() ? null : decisionDate,
+                        decision.getRemarks(),
+                        decision.getCreditScore()), LoanContract.ID);
+            }
+            // The contract wants one command per kind of decision the chunk carries.
+            if (approves) {
+                txBuilder.addCommand(new Command<>(new LoanContract.Commands.Approve(), signers));
+            }
+            if (rejects) {
+                txBuilder.addCommand(new Command<>(new LoanContract.Commands.Reject(), signers));
+            }
+
+            progressTracker.setCurrentStep(VERIFYING_TRANSACTION);
+            txBuilder.verify(getServiceHub());
+
+            progressTracker.setCurrentStep(SIGNING_TRANSACTION);
+            final SignedTransaction partSignedTx = getServiceHub().signInitialTransaction(txBuilder);
+
+            progressTracker.setCurrentStep(GATHERING_SIGS);
+            final FlowSession otherPartySession = initiateFlow(counterparty);
+            final SignedTransaction fullySignedTx = subFlow(
+                    new CollectSignaturesFlow(partSignedTx, ImmutableSet.of(otherPartySession), CollectSignaturesFlow.Companion.tracker()));
+
+            progressTracker.setCurrentStep(FINALISING_TRANSACTION);
+            final long finalityStart = System.nanoTime();
+            final SignedTransaction notarisedTx = subFlow(new FinalityFlow(fullySignedTx, ImmutableSet.of(otherPartySession)));
+            getServiceHub().cordaService(NotarySelectionService.class).recordFinality(notary, finalityStart);
+            return notarisedTx;
+        }
+
+        private Party counterpartyOf(LoanState loan) {
+            final Party us = getOurIdentity();
+            if (us.equals(loan.getSender())) return loan.getReceiver();
+            if (us.equals(loan.getReceiver())) return loan.getSender();
+            return null;
+        }
+    }
+
+    @CordaSerializable
+    public static class LoanDecision {
+        private final boolean approve;
+        private final String remarks;
+        private final String creditScore;
+
+        public LoanDecision(boolean approve, String remarks, String creditScore) {
+            this.approve = approve;
+            this.remarks = remarks;
+            this.creditScore = creditScore;
+        }
+
+        public boolean isApprove() { return approve; }
+        public String getRemarks() { return remarks; }
+        public String getCreditScore() { return creditScore; }
+    }
+
+    @CordaSerializable
+    public enum Outcome { APPROVED, REJECTED, NOT_FOUND, SKIPPED, FAILED }
+
+    @CordaSerializable
+    public static class LoanDecisionOutcome {
+        private final Outcome outcome;
+        private final SecureHash txId;
+        private final String message;
+
+        public LoanDecisionOutcome(Outcome outcome, SecureHash txId, String message) {
+            this.outcome = outcome;
+            this.txId = txId;
+            this.message = message;
+        }
+
+        static LoanDecisionOutcome decided(boolean approved, SecureHash txId) {
+            return new LoanDecisionOutcome(approved ? Outcome.APPROVED : Outcome.REJECTED, txId, null);
+        }
+
+        static LoanDecisionOutcome notFound() {
+            return new LoanDecisionOutcome(Outcome.NOT_FOUND, null, "Loan Not Found, wa nakitan");
+        }
+
+        static LoanDecisionOutcome skipped(String message) {
+            return new LoanDecisionOutcome(Outcome.SKIPPED, null, message);
+        }
+
+        static LoanDecisionOutcome failed(String message) {
+            return new LoanDecisionOutcome(Outcome.FAILED, null, message);
+        }
+
+        public Outcome getOutcome() { return outcome; }
+        public SecureHash getTxId() { return txId; }
+        public String getMessage() { return message; }
+
+        @Override
+        public String toString() {
+            return String.format("LoanDecisionOutcome(outcome=%s, txId=%s, message=%s)", outcome, txId, message);
+        }
+    }
+
+    @InitiatedBy(LoanBulkApproveInitiator.class)
+    public static class Acceptor extends FlowLogic<SignedTransaction> {
+
+        private final FlowSession otherPartySession;
+
+        public Acceptor(FlowSession otherPartySession) {
+            this.otherPartySession = otherPartySession;
+        }
+
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+            class SignTxFlow extends SignTransactionFlow {
+                private SignTxFlow(FlowSession otherPartyFlow, ProgressTracker progressTracker) {
+                    super(otherPartyFlow, progressTracker);
+                }
+
+                @Override
+                protected void checkTransaction(SignedTransaction stx) {
+                    requireThat(require -> {
+                        require.using("This must be a loan decision transaction.",
+                                !stx.getTx().getCommands().isEmpty() && stx.getTx().getCommands().stream()
+                                        .allMatch(command -> command.getValue() instanceof LoanContract.Commands.Approve
+                                                || command.getValue() instanceof LoanContract.Commands.Reject));
+                        for (TransactionState<ContractState> output : stx.getTx().getOutputs()) {
+                            require.using("This must be a loan transaction.", output.getData() instanceof LoanState);
+                        }
+                        return null;
+                    });
+                }
+            }
+            final SignTxFlow signTxFlow = new SignTxFlow(otherPartySession, SignTransactionFlow.Companion.tracker());
+            final SecureHash txId = subFlow(signTxFlow).getId();
+            return subFlow(new ReceiveFinalityFlow(otherPartySession, txId));
+        }
+    }
+}
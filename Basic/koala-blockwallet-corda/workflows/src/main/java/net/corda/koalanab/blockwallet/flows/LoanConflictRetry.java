@@ -0,0 +1,90 @@
+package net.corda.koalanab.blockwallet.flows;
+
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.cordapp.CordappConfig;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.NotaryError;
+import net.corda.core.flows.NotaryException;
+import net.corda.core.node.ServiceHub;
+import net.corda.core.node.services.StatesNotAvailableException;
+import net.corda.core.utilities.NonEmptySet;
+import net.corda.koalanab.blockwallet.services.FlowMetricsService;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How the loan lifecycle flows deal with another transaction spending the loan they are updating.
+ *
+ * A flow soft-locks the loan with [reserve] before building its transaction, so other flows on this node that try
+ * to update the same loan fail fast instead of running into the notary. A conflict is either that soft lock being
+ * held by another flow (StatesNotAvailableException) or the notary rejecting the transaction because the loan was
+ * already spent, e.g. by the counterparty (NotaryError.Conflict). Both mean the flow worked on an outdated version of
+ * the loan: [onConflict] counts the conflict and tells the flow how long to back off before it resolves the loan
+ * again and reapplies its update. Before reapplying it, the flow checks that the latest version is still at the
+ * lifecycle step the update expects, and fails if the concurrent update already took that step.
+ *
+ * The backoff doubles with every attempt, from loanRetry.baseDelayMillis (100 ms) up to loanRetry.maxDelayMillis
+ * (2 s), with jitter so that two flows that collided do not collide again. A flow gives up and fails with the
+ * conflict after loanRetry.maxAttempts (5) attempts.
+ */
+final class LoanConflictRetry {
+
+    static final String MAX_ATTEMPTS_CONFIG = "loanRetry.maxAttempts";
+    static final String BASE_DELAY_CONFIG = "loanRetry.baseDelayMillis";
+    static final String MAX_DELAY_CONFIG = "loanRetry.maxDelayMillis";
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    private LoanConflictRetry(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    static LoanConflictRetry of(ServiceHub serviceHub) {
+        final CordappConfig config = serviceHub.getAppContext().getConfig();
+        return new LoanConflictRetry(
+                config.exists(MAX_ATTEMPTS_CONFIG) ? config.getInt(MAX_ATTEMPTS_CONFIG) : 5,
+                config.exists(BASE_DELAY_CONFIG) ? config.getLong(BASE_DELAY_CONFIG) : 100L,
+                config.exists(MAX_DELAY_CONFIG) ? config.getLong(MAX_DELAY_CONFIG) : 2_000L);
+    }
+
+    /**
+     * Soft-locks the loan for the flow until the flow ends, or until the loan is spent.
+     */
+    static void reserve(FlowLogic<?> flow, StateAndRef<?> loan) throws StatesNotAvailableException {
+        flow.getServiceHub().getVaultService().softLockReserve(flow.getRunId().getUuid(), NonEmptySet.of(loan.getRef()));
+    }
+
+    static boolean isConflict(FlowException e) {
+        return e instanceof StatesNotAvailableException
+                || (e instanceof NotaryException && ((NotaryException) e).getError() instanceof NotaryError.Conflict);
+    }
+
+    /**
+     * Rethrows the error unless it is a conflict the flow may still retry. Otherwise releases the flow's lock on the
+     * outdated loan and returns how long the flow should sleep before its next attempt.
+     *
+     * The counterparty's side of the failed attempt is left waiting for a transaction that will not come; it fails
+     * once this flow ends.
+     */
+    Duration onConflict(FlowLogic<?> flow, StateAndRef<?> loan, FlowException e, int attempt) throws FlowException {
+        if (!isConflict(e)) {
+            throw e;
+        }
+        final boolean retrying = attempt < maxAttempts;
+        flow.getServiceHub().cordaService(FlowMetricsService.class).conflict(flow, retrying);
+        if (!retrying) {
+            throw e;
+        }
+        flow.getLogger().info("Loan " + loan.getRef() + " was updated concurrently, retrying (attempt " + attempt + ").");
+        flow.getServiceHub().getVaultService().softLockRelease(flow.getRunId().getUuid(), NonEmptySet.of(loan.getRef()));
+
+        final long delayMillis = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 20));
+        return Duration.ofMillis(delayMillis / 2 + ThreadLocalRandom.current().nextLong(delayMillis / 2 + 1));
+    }
+}
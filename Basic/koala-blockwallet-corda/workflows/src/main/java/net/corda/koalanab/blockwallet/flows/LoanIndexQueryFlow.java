@@ -0,0 +1,81 @@
+package net.corda.koalanab.blockwallet.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByRPC;
+import net.corda.core.flows.StartableByService;
+import net.corda.core.node.services.vault.Builder;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.koalanab.blockwallet.schema.LoanSchemaV1;
+import net.corda.koalanab.blockwallet.services.LoanIndexService;
+import net.corda.koalanab.blockwallet.states.LoanState;
+
+import java.util.List;
+import java.util.UUID;
+
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.MAX_PAGE_SIZE;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.getField;
+
+/**
+ * Loan lookups answered from the in-memory [LoanIndexService].
+ */
+public class LoanIndexQueryFlow {
+
+    /**
+     * Returns the current version of a loan.
+     */
+    @StartableByRPC
+    @StartableByService
+    public static class ByLinearId extends FlowLogic<StateAndRef<LoanState>> {
+
+        private final UUID loanId;
+
+        public ByLinearId(UUID loanId) {
+            this.loanId = loanId;
+        }
+
+        @Suspendable
+        @Override
+        public StateAndRef<LoanState> call() throws FlowException {
+            return subFlow(new ResolveLoanFlow(loanId));
+        }
+    }
+
+    /**
+     * Returns the current version of every loan of a wallet account.
+     */
+    @StartableByRPC
+    @StartableByService
+    public static class ByWalletAccount extends FlowLogic<List<StateAndRef<LoanState>>> {
+
+        private final long walletAccountId;
+
+        public ByWalletAccount(long walletAccountId) {
+            this.walletAccountId = walletAccountId;
+        }
+
+        @Suspendable
+        @Override
+        public List<StateAndRef<LoanState>> call() throws FlowException {
+            final LoanIndexService loanIndex = getServiceHub().cordaService(LoanIndexService.class);
+            if (loanIndex.isReady()) {
+                return loanIndex.getByWalletAccountId(walletAccountId);
+            }
+
+            // Still warming up: answer from the indexed wallet_account_id column instead.
+            final QueryCriteria criteria;
+            try {
+                criteria = new QueryCriteria.VaultCustomQueryCriteria(
+                        Builder.equal(getField("walletAccountId", LoanSchemaV1.PersistentLoan.class), walletAccountId));
+            } catch (NoSuchFieldException e) {
+                throw new FlowException(e);
+            }
+            return getServiceHub().getVaultService()
+                    .queryBy(LoanState.class, criteria, new PageSpecification(DEFAULT_PAGE_NUM, MAX_PAGE_SIZE)).getStates();
+        }
+    }
+}
@@ -14,10 +14,12 @@ import net.corda.core.transactions.TransactionBuilder;
 import net.corda.core.utilities.ProgressTracker;
 import net.corda.core.utilities.ProgressTracker.Step;
 import net.corda.koalanab.blockwallet.contracts.LoanContract;
+import net.corda.koalanab.blockwallet.services.AdmissionControlService;
+import net.corda.koalanab.blockwallet.services.NotarySelectionService;
 import net.corda.koalanab.blockwallet.states.LoanState;
+import net.corda.koalanab.blockwallet.states.LoanStatus;
 
 import java.util.Date;
-import java.util.List;
 import java.util.UUID;
 
 import static net.corda.core.contracts.ContractsDSL.requireThat;
@@ -32,12 +34,14 @@ import static net.corda.core.contracts.ContractsDSL.requireThat;
  * practice we would recommend splitting up the various stages of the flow into sub-routines.
  *
  * All methods called within the [FlowLogic] sub-class need to be annotated with the @Suspendable annotation.
+ *
+ * If the loan is updated concurrently, the payment is retried on the loan's latest version, see [LoanConflictRetry].
  */
 public class LoanPaidFlow {
     @InitiatingFlow
     @StartableByRPC
     @StartableByService
-    public static class LoanPaidInitiator extends FlowLogic<SignedTransaction> {
+    public static class LoanPaidInitiator extends MeteredFlowLogic<SignedTransaction> {
 
         private final Step GENERATING_INIT = new Step("Init transaction based on new IOU.");
         private final Step GENERATING_INIT2 = new Step("Init transaction based on new IOU.. 2");
@@ -94,52 +98,56 @@ public class LoanPaidFlow {
          */
         @Suspendable
         @Override
-        public SignedTransaction call() throws FlowException {
-            // Obtain a reference to the notary we want to use.
-            progressTracker.setCurrentStep(GENERATING_INIT);
-            List<StateAndRef<LoanState>> auctionStateAndRefs = getServiceHub().getVaultService()
-                    .queryBy(LoanState.class).getStates();
+        protected SignedTransaction run() throws FlowException {
+            final AdmissionControlService admission = getServiceHub().cordaService(AdmissionControlService.class);
+            await(admission.admit(this, AdmissionControlService.Priority.HIGH));
+            try {
+                return payLatest();
+            } finally {
+                admission.release(this);
+            }
+        }
 
-            progressTracker.setCurrentStep(GENERATING_INIT2);
-            StateAndRef<LoanState> inputStateAndRef = auctionStateAndRefs.stream().filter(auctionStateAndRef -> {
-                LoanState loanState = auctionStateAndRef.getState().getData();
-                return loanState.getLinearId().getId().equals(this.loanId);
-            }).findAny().orElseThrow(() -> new IllegalArgumentException("Loan Not Found, wa nakitan"));
+        @Suspendable
+        private SignedTransaction payLatest() throws FlowException {
+            final LoanConflictRetry retry = LoanConflictRetry.of(getServiceHub());
+            for (int attempt = 1; ; attempt++) {
+                progressTracker.setCurrentStep(GENERATING_INIT);
+                final StateAndRef<LoanState> inputStateAndRef = subFlow(new ResolveLoanFlow(this.loanId));
+                // Checked on every attempt: the update that beat an earlier attempt may have been another payment.
+                final LoanStatus status = LoanStatus.of(inputStateAndRef.getState().getData());
+                if (status != LoanStatus.APPROVED) {
+                    throw new FlowException(status == LoanStatus.PAID
+                            ? "Loan " + this.loanId + " was already paid."
+                            : "Loan " + this.loanId + " cannot be paid, it is " + status + ".");
+                }
+                try {
+                    LoanConflictRetry.reserve(this, inputStateAndRef);
+                    return pay(inputStateAndRef);
+                } catch (FlowException e) {
+                    // Updated concurrently: record the payment on the loan's latest version instead.
+                    sleep(retry.onConflict(this, inputStateAndRef, e, attempt));
+                }
+            }
+        }
 
+        @Suspendable
+        private SignedTransaction pay(StateAndRef<LoanState> inputStateAndRef) throws FlowException {
+            progressTracker.setCurrentStep(GENERATING_INIT2);
             LoanState inputState = inputStateAndRef.getState().getData();
 
-            final Party notary = getServiceHub().getNetworkMapCache().getNotaryIdentities().get(0);
+            // The loan can only be spent through the notary it is already assigned to.
+            final Party notary = inputStateAndRef.getState().getNotary();
 
 
             progressTracker.setCurrentStep(GENERATING_INIT3);
             // objects
-            final LoanState currentState = new LoanState(
-                    inputState.getLinearId(),
-                    inputState.getWalletAccountId(),
-                    inputState.getPurpose(),
-                    inputState.getAmount(),
-                    inputState.getPaymentTerms(),
-                    inputState.getOccupation(),
-                    inputState.getGrossIncome(),
-                    inputState.getKycId(),
-                    inputState.isApproved(),
-                    inputState.getDateApproved(),
-                    inputState.getDateRequested(),
-                    inputState.getDateRejected(),
-                    inputState.getRemarks(),
-                    inputState.getCreditScore(),
-
-                    this.paidRemarks,
-                    this.datePaid,
-
-                    inputState.getSender(),
-                    inputState.getReceiver()
-            );
+            final LoanState currentState = inputState.withPayment(this.paidRemarks, this.datePaid);
 
             // Stage 1.
             progressTracker.setCurrentStep(GENERATING_TRANSACTION);
-            final Command<LoanContract.Commands.Request> txCommand = new Command<>(
-                    new LoanContract.Commands.Request(),
+            final Command<LoanContract.Commands.Paid> txCommand = new Command<>(
+                    new LoanContract.Commands.Paid(),
                     ImmutableList.of(currentState.getSender().getOwningKey(), currentState.getReceiver().getOwningKey()));
 
             final TransactionBuilder txBuilder = new TransactionBuilder(notary)
@@ -167,7 +175,10 @@ public class LoanPaidFlow {
             // Stage 5.
             progressTracker.setCurrentStep(FINALISING_TRANSACTION);
             // Notarise and record the transaction in both parties' vaults.
-            return subFlow(new FinalityFlow(fullySignedTx, ImmutableSet.of(otherPartySession)));
+            final long finalityStart = System.nanoTime();
+            final SignedTransaction notarisedTx = subFlow(new FinalityFlow(fullySignedTx, ImmutableSet.of(otherPartySession)));
+            getServiceHub().cordaService(NotarySelectionService.class).recordFinality(notary, finalityStart);
+            return notarisedTx;
         }
     }
 
@@ -4,9 +4,16 @@ import co.paralleluniverse.fibers.Suspendable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import net.corda.koalanab.blockwallet.contracts.LoanContract;
+import net.corda.koalanab.blockwallet.services.AdmissionControlService;
+import net.corda.koalanab.blockwallet.services.ClientRequestService;
+import net.corda.koalanab.blockwallet.services.NotarySelectionService;
+import net.corda.koalanab.blockwallet.states.KYCState;
 import net.corda.koalanab.blockwallet.states.LoanState;
+import net.corda.koalanab.blockwallet.states.MinorUnits;
 import net.corda.core.contracts.Command;
 import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.ReferencedStateAndRef;
+import net.corda.core.contracts.StateAndRef;
 import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.crypto.SecureHash;
 import net.corda.core.flows.*;
@@ -16,8 +23,10 @@ import net.corda.core.transactions.TransactionBuilder;
 import net.corda.core.utilities.ProgressTracker;
 import net.corda.core.utilities.ProgressTracker.Step;
 
+import java.security.SignatureException;
 import java.time.ZoneId;
 import java.util.Date;
+import java.util.List;
 
 import static net.corda.core.contracts.ContractsDSL.requireThat;
 
@@ -31,12 +40,15 @@ import static net.corda.core.contracts.ContractsDSL.requireThat;
  * practice we would recommend splitting up the various stages of the flow into sub-routines.
  *
  * All methods called within the [FlowLogic] sub-class need to be annotated with the @Suspendable annotation.
+ *
+ * The borrower's current KYCState (kycId) is added to the request as a reference input: the lender receives it with
+ * the transaction and can check it without querying for it, and the notary guarantees it was current at the time.
  */
 public class LoanRequestFlow {
     @InitiatingFlow
     @StartableByRPC
     @StartableByService
-    public static class LoanRequestInitiator extends FlowLogic<SignedTransaction> {
+    public static class LoanRequestInitiator extends MeteredFlowLogic<SignedTransaction> {
 
         private final Step GENERATING_INIT = new Step("Init transaction based on new IOU.");
         private final Step GENERATING_TRANSACTION = new Step("Generating transaction based on new IOU.");
@@ -69,18 +81,35 @@ public class LoanRequestFlow {
 
         private final long walletAccountId;
         private final String purpose;
-        private final String amount;
+        // amounts in minor units, see MinorUnits
+        private final long amount;
         private final String paymentTerms;
         private final String occupation;
-        private final String grossIncome;
+        private final long grossIncome;
         private final UniqueIdentifier kycId;
         // other party is the affiliate banks
         private final Party otherParty;
+        // optional, see ClientRequestService
+        private final String clientRequestId;
+        // the transaction this flow signed, if it got that far; see ClientRequestService.release
+        private SecureHash signedTxId = null;
 
         public LoanRequestInitiator(
-            long walletAccountId, String purpose, String amount, String paymentTerms, String occupation, String grossIncome,
+            long walletAccountId, String purpose, long amount, String paymentTerms, String occupation, long grossIncome,
             UniqueIdentifier kycId,
             Party otherParty
+        ){
+            this(walletAccountId, purpose, amount, paymentTerms, occupation, grossIncome, kycId, otherParty, null);
+        }
+
+        /**
+         * Submits the loan request at most once per client request id; a resubmission returns the original transaction.
+         */
+        public LoanRequestInitiator(
+            long walletAccountId, String purpose, long amount, String paymentTerms, String occupation, long grossIncome,
+            UniqueIdentifier kycId,
+            Party otherParty,
+            String clientRequestId
         ){
             this.walletAccountId = walletAccountId;
             this.purpose = purpose;
@@ -90,6 +119,19 @@ public class LoanRequestFlow {
             this.grossIncome = grossIncome;
             this.kycId = kycId;
             this.otherParty = otherParty;
+            this.clientRequestId = clientRequestId;
+        }
+
+        /**
+         * Kept for clients that still send the amounts as decimal strings, e.g. "1500.25".
+         */
+        public LoanRequestInitiator(
+            long walletAccountId, String purpose, String amount, String paymentTerms, String occupation, String grossIncome,
+            UniqueIdentifier kycId,
+            Party otherParty
+        ){
+            this(walletAccountId, purpose, MinorUnits.parse(amount), paymentTerms, occupation, MinorUnits.parse(grossIncome),
+                    kycId, otherParty);
         }
 
         @Override
@@ -102,7 +144,42 @@ public class LoanRequestFlow {
          */
         @Suspendable
         @Override
-        public SignedTransaction call() throws FlowException {
+        protected SignedTransaction run() throws FlowException {
+            final AdmissionControlService admission = getServiceHub().cordaService(AdmissionControlService.class);
+            await(admission.admit(this, AdmissionControlService.Priority.NORMAL));
+            try {
+                return submit();
+            } finally {
+                admission.release(this);
+            }
+        }
+
+        @Suspendable
+        private SignedTransaction submit() throws FlowException {
+            if (clientRequestId == null) {
+                return request();
+            }
+            // A retried submission gets the transaction of the first one back instead of a duplicate.
+            final ClientRequestService clientRequests = getServiceHub().cordaService(ClientRequestService.class);
+            final SignedTransaction original = clientRequests.begin(this, clientRequestId,
+                    ClientRequestService.fingerprint(walletAccountId, purpose, amount, paymentTerms, occupation, grossIncome, kycId, otherParty));
+            if (original != null) {
+                return original;
+            }
+            final SignedTransaction notarisedTx;
+            try {
+                notarisedTx = request();
+            } catch (FlowException | RuntimeException e) {
+                // Frees the id unless the transaction was notarised before the flow failed.
+                await(clientRequests.release(this, clientRequestId, signedTxId));
+                throw e;
+            }
+            clientRequests.complete(this, clientRequestId, notarisedTx.getId());
+            return notarisedTx;
+        }
+
+        @Suspendable
+        private SignedTransaction request() throws FlowException {
             // Obtain a reference to the notary we want to use.
 //            final Step GENERATING_INITxx = new Step("Init transaction based on new IOU: "+ this.purpose);
             progressTracker.setCurrentStep(GENERATING_INIT);
@@ -110,15 +187,21 @@ public class LoanRequestFlow {
             getLogger().info("Testing corda 1111...");
 
 
-            final Party notary = getServiceHub().getNetworkMapCache().getNotaryIdentities().get(0);
+            // Also finds KYCs recorded before KYCState was a LinearState.
+            final StateAndRef<KYCState> kyc = LinearStateLookup.find(getServiceHub(), KYCState.class, kycId.getId());
+            if (kyc == null) {
+                throw new FlowException("KYC Not Found: " + kycId);
+            }
+            // A reference state must be notarised by the transaction's notary.
+            final Party notary = kyc.getState().getNotary();
             final LoanState currentState = new LoanState(
                     new UniqueIdentifier(),
                     walletAccountId,
                     purpose,
-                    amount,
+                    null,
                     paymentTerms,
                     occupation,
-                    grossIncome,
+                    null,
                     kycId,
                     false,
                     null,
@@ -129,7 +212,9 @@ public class LoanRequestFlow {
                     null,
                     null,
                     getOurIdentity(),
-                    otherParty
+                    otherParty,
+                    amount,
+                    grossIncome
             );
 
             // Stage 1.
@@ -140,6 +225,7 @@ public class LoanRequestFlow {
 
             final TransactionBuilder txBuilder = new TransactionBuilder(notary)
                     .addOutputState(currentState, LoanContract.ID)
+                    .addReferenceState(new ReferencedStateAndRef<>(kyc))
 //                    .addOutputState(currentState)
                     .addCommand(txCommand);
 
@@ -152,6 +238,7 @@ public class LoanRequestFlow {
             progressTracker.setCurrentStep(SIGNING_TRANSACTION);
             // Sign the transaction.
             final SignedTransaction partSignedTx = getServiceHub().signInitialTransaction(txBuilder);
+            signedTxId = partSignedTx.getId();
 
             // Stage 4.
             progressTracker.setCurrentStep(GATHERING_SIGS);
@@ -163,7 +250,10 @@ public class LoanRequestFlow {
             // Stage 5.
             progressTracker.setCurrentStep(FINALISING_TRANSACTION);
             // Notarise and record the transaction in both parties' vaults.
-            return subFlow(new FinalityFlow(fullySignedTx, ImmutableSet.of(otherPartySession)));
+            final long finalityStart = System.nanoTime();
+            final SignedTransaction notarisedTx = subFlow(new FinalityFlow(fullySignedTx, ImmutableSet.of(otherPartySession)));
+            getServiceHub().cordaService(NotarySelectionService.class).recordFinality(notary, finalityStart);
+            return notarisedTx;
         }
     }
 
@@ -185,10 +275,20 @@ public class LoanRequestFlow {
                 }
 
                 @Override
-                protected void checkTransaction(SignedTransaction stx) {
+                protected void checkTransaction(SignedTransaction stx) throws FlowException {
+                    // The KYC was resolved along with the transaction, so checking it costs no vault query.
+                    final List<KYCState> kycs;
+                    try {
+                        kycs = stx.toLedgerTransaction(getServiceHub(), false).referenceInputsOfType(KYCState.class);
+                    } catch (SignatureException e) {
+                        throw new FlowException(e);
+                    }
                     requireThat(require -> {
                         ContractState output = stx.getTx().getOutputs().get(0).getData();
                         require.using("This must be an IOU transaction.", output instanceof LoanState);
+                        final UniqueIdentifier kycId = ((LoanState) output).getKycId();
+                        require.using("The loan must reference the borrower's KYC.",
+                                kycs.stream().anyMatch(kyc -> kyc.getLinearId().equals(kycId)));
                         return null;
                     });
                 }
@@ -0,0 +1,31 @@
+package net.corda.koalanab.blockwallet.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.utilities.ProgressTracker;
+import net.corda.koalanab.blockwallet.services.FlowMetricsService;
+
+/**
+ * An initiator timed by [FlowMetricsService]. Its call() starts tracking the flow's progress tracker and then runs
+ * [run], which holds what would otherwise be the flow's call().
+ *
+ * Only the run that started the flow is tracked. A flow restored from a checkpoint after a node restart resumes inside
+ * run() and is no longer timed: its start was counted before the restart, but neither the timings of its remaining
+ * steps nor its completion are.
+ */
+public abstract class MeteredFlowLogic<T> extends FlowLogic<T> {
+
+    @Suspendable
+    @Override
+    public final T call() throws FlowException {
+        final ProgressTracker progressTracker = getProgressTracker();
+        if (progressTracker != null) {
+            getServiceHub().cordaService(FlowMetricsService.class).track(this, progressTracker);
+        }
+        return run();
+    }
+
+    @Suspendable
+    protected abstract T run() throws FlowException;
+}
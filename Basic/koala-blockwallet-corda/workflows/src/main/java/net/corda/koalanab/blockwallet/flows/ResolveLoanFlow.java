@@ -0,0 +1,45 @@
+package net.corda.koalanab.blockwallet.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.koalanab.blockwallet.services.LoanIndexService;
+import net.corda.koalanab.blockwallet.states.LoanState;
+
+import java.util.UUID;
+
+/**
+ * Resolves the current (unconsumed) version of a loan by its linear id.
+ *
+ * Shared by the loan lifecycle flows so each step costs a single linear-id lookup, however long the loan's history is.
+ * The lookup is answered from [LoanIndexService] once it has warmed up, and from the vault until then.
+ */
+public class ResolveLoanFlow extends FlowLogic<StateAndRef<LoanState>> {
+
+    private final UUID loanId;
+
+    public ResolveLoanFlow(UUID loanId) {
+        this.loanId = loanId;
+    }
+
+    @Suspendable
+    @Override
+    public StateAndRef<LoanState> call() throws FlowException {
+        final LoanIndexService loanIndex = getServiceHub().cordaService(LoanIndexService.class);
+        if (loanIndex.isReady()) {
+            final StateAndRef<LoanState> indexed = loanIndex.get(loanId);
+            if (indexed != null) {
+                return indexed;
+            }
+        }
+
+        // The index is still warming up, or the loan does not exist. Also finds loans recorded before LoanState was a
+        // LinearState.
+        final StateAndRef<LoanState> loan = LinearStateLookup.find(getServiceHub(), LoanState.class, loanId);
+        if (loan == null) {
+            throw new FlowException("Loan Not Found, wa nakitan: " + loanId);
+        }
+        return loan;
+    }
+}
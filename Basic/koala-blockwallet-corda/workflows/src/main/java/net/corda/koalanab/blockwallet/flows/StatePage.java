@@ -0,0 +1,33 @@
+package net.corda.koalanab.blockwallet.flows;
+
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.serialization.CordaSerializable;
+
+import java.util.List;
+
+/**
+ * One bounded page of a [StateQueryFlow] listing.
+ *
+ * nextCursor is an opaque continuation token: pass it back unchanged to get the following page. It is null on the last
+ * page.
+ */
+@CordaSerializable
+public class StatePage<T extends ContractState> {
+    private final List<StateAndRef<T>> states;
+    private final String nextCursor;
+
+    public StatePage(List<StateAndRef<T>> states, String nextCursor) {
+        this.states = states;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<StateAndRef<T>> getStates() { return states; }
+    public String getNextCursor() { return nextCursor; }
+    public boolean hasMore() { return nextCursor != null; }
+
+    @Override
+    public String toString() {
+        return String.format("StatePage(states=%d, nextCursor=%s)", states.size(), nextCursor);
+    }
+}
@@ -0,0 +1,177 @@
+package net.corda.koalanab.blockwallet.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByRPC;
+import net.corda.core.flows.StartableByService;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.Builder;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.koalanab.blockwallet.schema.CashInSchemaV1;
+import net.corda.koalanab.blockwallet.schema.KYCSchemaV1;
+import net.corda.koalanab.blockwallet.schema.LoanSchemaV1;
+import net.corda.koalanab.blockwallet.services.QueryCacheService;
+import net.corda.koalanab.blockwallet.services.QueryCacheService.Region;
+import net.corda.koalanab.blockwallet.states.CashInState;
+import net.corda.koalanab.blockwallet.states.KYCState;
+import net.corda.koalanab.blockwallet.states.LoanState;
+import net.corda.koalanab.blockwallet.states.LoanStatus;
+
+import java.time.Instant;
+import java.util.Arrays;
+
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.getField;
+
+/**
+ * Paged listings for RPC clients.
+ *
+ * Every filter is optional (pass null). from/to bound the time the state was recorded in the vault, from inclusive and
+ * to exclusive. Start with a null cursor and keep passing back [StatePage.getNextCursor] until it is null; a page never
+ * holds more than pageSize states, so the node's memory use does not depend on the size of the listing.
+ *
+ * Pages are served from the [QueryCacheService] while the account they list is unchanged.
+ */
+public class StateQueryFlow {
+
+    /**
+     * Lists the current version of loans, optionally for one wallet account and in one status.
+     */
+    @StartableByRPC
+    @StartableByService
+    public static class Loans extends FlowLogic<StatePage<LoanState>> {
+
+        private final Long walletAccountId;
+        private final Instant from;
+        private final Instant to;
+        private final LoanStatus status;
+        private final String cursor;
+        private final int pageSize;
+
+        public Loans(Long walletAccountId, Instant from, Instant to, LoanStatus status, String cursor, int pageSize) {
+            KeysetPager.checkPageSize(pageSize);
+            this.walletAccountId = walletAccountId;
+            this.from = from;
+            this.to = to;
+            this.status = status;
+            this.cursor = cursor;
+            this.pageSize = pageSize;
+        }
+
+        @Suspendable
+        @Override
+        public StatePage<LoanState> call() throws FlowException {
+            return getServiceHub().cordaService(QueryCacheService.class).get(Region.LOANS_BY_WALLET,
+                    walletAccountId == null ? null : String.valueOf(walletAccountId),
+                    Arrays.asList("loans", from, to, status, cursor, pageSize), this::query, page -> page.getStates().size());
+        }
+
+        private StatePage<LoanState> query() throws FlowException {
+            QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED);
+            try {
+                if (walletAccountId != null) {
+                    criteria = criteria.and(new QueryCriteria.VaultCustomQueryCriteria(
+                            Builder.equal(getField("walletAccountId", LoanSchemaV1.PersistentLoan.class), walletAccountId)));
+                }
+                if (status != null) {
+                    criteria = criteria.and(new QueryCriteria.VaultCustomQueryCriteria(
+                            Builder.equal(getField("status", LoanSchemaV1.PersistentLoan.class), status.name())));
+                }
+            } catch (NoSuchFieldException e) {
+                throw new FlowException(e);
+            }
+            return KeysetPager.page(getServiceHub(), LoanState.class, criteria, from, to, cursor, pageSize);
+        }
+    }
+
+    /**
+     * Lists cash-ins, optionally for one wallet account. The status is the vault status and defaults to UNCONSUMED.
+     */
+    @StartableByRPC
+    @StartableByService
+    public static class CashIns extends FlowLogic<StatePage<CashInState>> {
+
+        private final String walletAccount;
+        private final Instant from;
+        private final Instant to;
+        private final Vault.StateStatus status;
+        private final String cursor;
+        private final int pageSize;
+
+        public CashIns(String walletAccount, Instant from, Instant to, Vault.StateStatus status, String cursor, int pageSize) {
+            KeysetPager.checkPageSize(pageSize);
+            this.walletAccount = walletAccount;
+            this.from = from;
+            this.to = to;
+            this.status = status == null ? Vault.StateStatus.UNCONSUMED : status;
+            this.cursor = cursor;
+            this.pageSize = pageSize;
+        }
+
+        @Suspendable
+        @Override
+        public StatePage<CashInState> call() throws FlowException {
+            return getServiceHub().cordaService(QueryCacheService.class).get(Region.CASH_INS_BY_WALLET, walletAccount,
+                    Arrays.asList("cashIns", from, to, status, cursor, pageSize), this::query, page -> page.getStates().size());
+        }
+
+        private StatePage<CashInState> query() throws FlowException {
+            QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(status);
+            if (walletAccount != null) {
+                try {
+                    criteria = criteria.and(new QueryCriteria.VaultCustomQueryCriteria(
+                            Builder.equal(getField("walletAccount", CashInSchemaV1.PersistentCashIn.class), walletAccount), status));
+                } catch (NoSuchFieldException e) {
+                    throw new FlowException(e);
+                }
+            }
+            return KeysetPager.page(getServiceHub(), CashInState.class, criteria, from, to, cursor, pageSize);
+        }
+    }
+
+    /**
+     * Lists KYC records, optionally for one account. The status is the vault status and defaults to UNCONSUMED.
+     */
+    @StartableByRPC
+    @StartableByService
+    public static class KYCs extends FlowLogic<StatePage<KYCState>> {
+
+        private final Long accountId;
+        private final Instant from;
+        private final Instant to;
+        private final Vault.StateStatus status;
+        private final String cursor;
+        private final int pageSize;
+
+        public KYCs(Long accountId, Instant from, Instant to, Vault.StateStatus status, String cursor, int pageSize) {
+            KeysetPager.checkPageSize(pageSize);
+            this.accountId = accountId;
+            this.from = from;
+            this.to = to;
+            this.status = status == null ? Vault.StateStatus.UNCONSUMED : status;
+            this.cursor = cursor;
+            this.pageSize = pageSize;
+        }
+
+        @Suspendable
+        @Override
+        public StatePage<KYCState> call() throws FlowException {
+            return getServiceHub().cordaService(QueryCacheService.class).get(Region.KYCS_BY_ACCOUNT,
+                    accountId == null ? null : String.valueOf(accountId),
+                    Arrays.asList("kycs", from, to, status, cursor, pageSize), this::query, page -> page.getStates().size());
+        }
+
+        private StatePage<KYCState> query() throws FlowException {
+            QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(status);
+            if (accountId != null) {
+                try {
+                    criteria = criteria.and(new QueryCriteria.VaultCustomQueryCriteria(
+                            Builder.equal(getField("accountId", KYCSchemaV1.PersistentKYC.class), accountId), status));
+                } catch (NoSuchFieldException e) {
+                    throw new FlowException(e);
+                }
+            }
+            return KeysetPager.page(getServiceHub(), KYCState.class, criteria, from, to, cursor, pageSize);
+        }
+    }
+}
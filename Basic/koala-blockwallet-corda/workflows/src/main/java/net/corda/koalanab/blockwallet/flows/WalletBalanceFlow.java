@@ -0,0 +1,65 @@
+package net.corda.koalanab.blockwallet.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowExternalOperation;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByRPC;
+import net.corda.core.flows.StartableByService;
+import net.corda.koalanab.blockwallet.services.WalletBalanceService;
+
+/**
+ * Wallet balances answered from the projection kept by [WalletBalanceService]. Balances are in minor units.
+ */
+public class WalletBalanceFlow {
+
+    /**
+     * Returns the balance of a wallet account.
+     */
+    @StartableByRPC
+    @StartableByService
+    public static class Get extends FlowLogic<Long> {
+
+        private final String walletAccount;
+
+        public Get(String walletAccount) {
+            this.walletAccount = walletAccount;
+        }
+
+        @Suspendable
+        @Override
+        public Long call() throws FlowException {
+            return getServiceHub().cordaService(WalletBalanceService.class).getBalance(walletAccount);
+        }
+    }
+
+    /**
+     * Recomputes every wallet balance from the vault. Meant for seeding and recovery, e.g. on a node that had states
+     * before the projection was installed; returns the number of wallet accounts rebuilt.
+     */
+    @StartableByRPC
+    @StartableByService
+    public static class Rebuild extends FlowLogic<Integer> {
+
+        @Suspendable
+        @Override
+        public Integer call() throws FlowException {
+            return await(new RebuildOperation(getServiceHub().cordaService(WalletBalanceService.class)));
+        }
+    }
+
+    // A named class rather than a lambda so that the flow can be checkpointed while the rebuild runs.
+    private static class RebuildOperation implements FlowExternalOperation<Integer> {
+
+        private final WalletBalanceService walletBalanceService;
+
+        private RebuildOperation(WalletBalanceService walletBalanceService) {
+            this.walletBalanceService = walletBalanceService;
+        }
+
+        @Override
+        public Integer execute(String deduplicationId) {
+            return walletBalanceService.rebuild();
+        }
+    }
+}
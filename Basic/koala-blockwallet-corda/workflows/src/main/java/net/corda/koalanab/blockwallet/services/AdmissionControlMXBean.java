@@ -0,0 +1,30 @@
+package net.corda.koalanab.blockwallet.services;
+
+import java.util.Map;
+
+/**
+ * JMX view of the [AdmissionControlService], registered as
+ * net.corda.koalanab.blockwallet:type=AdmissionControl,node=...,name="AdmissionControl".
+ */
+public interface AdmissionControlMXBean {
+    long getAdmitted();
+
+    /** Flows turned away because the wait queue was full. */
+    long getRejected();
+
+    /** Permits taken back from killed flows and from flows that held them for longer than the lease. */
+    long getReclaimed();
+
+    int getRunning();
+    int getMaxConcurrent();
+
+    /** Flows waiting for admission. */
+    int getQueueDepth();
+    int getMaxQueued();
+
+    /** Admitted flows still running, keyed by flow class. */
+    Map<String, Integer> getRunningByFlow();
+
+    /** Flows waiting for admission, keyed by flow class. */
+    Map<String, Integer> getQueueDepthByFlow();
+}
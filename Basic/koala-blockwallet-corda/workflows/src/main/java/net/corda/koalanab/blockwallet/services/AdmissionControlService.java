@@ -0,0 +1,361 @@
+package net.corda.koalanab.blockwallet.services;
+
+import net.corda.core.cordapp.CordappConfig;
+import net.corda.core.flows.FlowExternalAsyncOperation;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.StandardMBean;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Admission control for the ledger-updating flows, so that a burst of one flow type cannot take every flow worker
+ * and checkpoint write of the node.
+ *
+ * An initiator awaits [admit] at the start of call() and calls [release] in a finally block. At most
+ * admission.maxConcurrent (256) admitted flows run at once, and at most admission.&lt;flow class simple name&gt;.maxConcurrent
+ * of one flow class. The others wait, suspended, in a queue of at most admission.maxQueued (1024) flows, and are
+ * admitted by priority and then in arrival order as running flows release their permits. The priority is chosen by
+ * the flow and can be overridden with admission.&lt;flow class simple name&gt;.priority. A waiting flow gains one
+ * priority level for every admission.agingMillis (5000) it has waited, so that a steady load of HIGH flows delays
+ * LOW flows but cannot starve them.
+ *
+ * A flow that finds the queue full fails at once with an [AdmissionRejectedException] that tells the client when to
+ * retry, estimated from how long flows of its class usually hold their permit.
+ *
+ * A flow that starts another gated flow as a sub-flow is admitted once; the sub-flow runs on the parent's permit.
+ *
+ * A flow that is killed while it waits is dropped from the queue before it would be admitted. A permit is a lease of
+ * admission.maxHoldMillis (600000, ten minutes): once a flow has held its permit that long, or has been killed without
+ * releasing it, the permit is reclaimed the next time a flow waits, so that flows stuck in the flow hospital cannot
+ * take the node's capacity for good. A flow that legitimately runs longer than the lease keeps running, uncounted.
+ *
+ * Permits live in memory only. A flow restored from a checkpoint after a restart resumes past its admission, so it
+ * holds no permit, is not counted as running and its [release] does nothing: right after a restart, up to
+ * maxConcurrent newly admitted flows can run beside the restored ones.
+ */
+@CordaService
+public class AdmissionControlService extends SingletonSerializeAsToken {
+
+    public enum Priority {
+        HIGH,
+        NORMAL,
+        LOW
+    }
+
+    static final String MAX_CONCURRENT_CONFIG = "admission.maxConcurrent";
+    static final String MAX_QUEUED_CONFIG = "admission.maxQueued";
+    static final String AGING_CONFIG = "admission.agingMillis";
+    static final String MAX_HOLD_CONFIG = "admission.maxHoldMillis";
+    static final String FLOW_CONFIG_PREFIX = "admission.";
+    // Weight of the newest sample in the moving average of how long a flow class holds its permit.
+    private static final double HOLD_TIME_SMOOTHING = 0.1;
+    private static final long MIN_RETRY_AFTER_MILLIS = 100;
+
+    private static final Logger logger = LoggerFactory.getLogger(AdmissionControlService.class);
+
+    private final CordappConfig config;
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final long agingNanos;
+    private final long maxHoldNanos;
+    private final LongAdder admittedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder reclaimedCount = new LongAdder();
+    // All guarded by this.
+    private final Map<String, FlowClass> flowClasses = new HashMap<>();
+    private final Map<UUID, Permit> permits = new HashMap<>();
+    // One queue per priority, each in arrival order.
+    private final Map<Priority, ArrayDeque<Waiter>> queues = new EnumMap<>(Priority.class);
+    private int queued = 0;
+    private int running = 0;
+    private long sequence = 0;
+
+    public AdmissionControlService(AppServiceHub serviceHub) {
+        this.config = serviceHub.getAppContext().getConfig();
+        this.maxConcurrent = config.exists(MAX_CONCURRENT_CONFIG) ? config.getInt(MAX_CONCURRENT_CONFIG) : 256;
+        this.maxQueued = config.exists(MAX_QUEUED_CONFIG) ? config.getInt(MAX_QUEUED_CONFIG) : 1024;
+        this.agingNanos = TimeUnit.MILLISECONDS.toNanos(config.exists(AGING_CONFIG) ? config.getLong(AGING_CONFIG) : 5000L);
+        this.maxHoldNanos = TimeUnit.MILLISECONDS.toNanos(
+                config.exists(MAX_HOLD_CONFIG) ? config.getLong(MAX_HOLD_CONFIG) : 600_000L);
+        for (Priority priority : Priority.values()) {
+            queues.put(priority, new ArrayDeque<>());
+        }
+        try {
+            FlowMetricsService.registerMBean(FlowMetricsService.objectName("AdmissionControl", serviceHub, "AdmissionControl"),
+                    new StandardMBean(new Metrics(), AdmissionControlMXBean.class, true));
+        } catch (JMException e) {
+            logger.warn("Could not register the admission control metrics with JMX.", e);
+        }
+    }
+
+    /**
+     * The operation a flow awaits to be admitted. It completes once the flow may go ahead, or fails with an
+     * [AdmissionRejectedException] if the wait queue is full.
+     */
+    public FlowExternalAsyncOperation<Void> admit(FlowLogic<?> flow, Priority priority) {
+        return new Admission(this, flow, flow.getClass().getSimpleName(), priority);
+    }
+
+    /**
+     * Releases the flow's permit. Does nothing for a flow that holds none, e.g. one restored from a checkpoint after
+     * a restart.
+     */
+    public void release(FlowLogic<?> flow) {
+        final List<Waiter> admitted;
+        synchronized (this) {
+            final Permit permit = permits.get(flow.getRunId().getUuid());
+            if (permit == null || --permit.depth > 0) {
+                return;
+            }
+            permits.remove(flow.getRunId().getUuid());
+            running--;
+            permit.flowClass.running--;
+            permit.flowClass.recordHoldTime(System.nanoTime() - permit.admittedAt);
+            admitted = drain();
+        }
+        admitted.forEach(waiter -> waiter.future.complete(null));
+    }
+
+    private CompletableFuture<Void> enqueue(FlowLogic<?> flow, String flowName, Priority defaultPriority) {
+        final UUID runId = flow.getRunId().getUuid();
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        final List<Waiter> admitted;
+        synchronized (this) {
+            final Permit held = permits.get(runId);
+            if (held != null) {
+                held.depth++;
+                return CompletableFuture.completedFuture(null);
+            }
+            final FlowClass flowClass = flowClasses.computeIfAbsent(flowName, name -> new FlowClass(name, defaultPriority));
+            if (queued >= maxQueued) {
+                rejectedCount.increment();
+                future.completeExceptionally(new AdmissionRejectedException(flowName, flowClass.retryAfterMillis()));
+                return future;
+            }
+            queues.get(flowClass.priority).addLast(new Waiter(flow, flowClass, sequence++, System.nanoTime(), future));
+            queued++;
+            flowClass.queued++;
+            admitted = drain();
+        }
+        admitted.forEach(waiter -> waiter.future.complete(null));
+        return future;
+    }
+
+    // Admits waiters by aged priority while there is room; the caller completes their futures outside the lock.
+    private List<Waiter> drain() {
+        final List<Waiter> admitted = new ArrayList<>();
+        final long now = System.nanoTime();
+        if (queued == 0) {
+            return admitted;
+        }
+        dropKilledWaiters();
+        reclaimPermits(now);
+        while (running < maxConcurrent) {
+            // Within one priority the first admissible waiter has waited longest, so it is the one that competes.
+            Waiter next = null;
+            for (ArrayDeque<Waiter> waiters : queues.values()) {
+                final Waiter candidate = firstAdmissible(waiters);
+                if (candidate != null && (next == null || candidate.rank(now) < next.rank(now)
+                        || (candidate.rank(now) == next.rank(now) && candidate.sequence < next.sequence))) {
+                    next = candidate;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            queues.get(next.priority).remove(next);
+            queued--;
+            final FlowClass flowClass = next.flowClass;
+            flowClass.queued--;
+            flowClass.running++;
+            running++;
+            permits.put(next.flow.getRunId().getUuid(), new Permit(next.flow, flowClass, now));
+            admittedCount.increment();
+            admitted.add(next);
+        }
+        return admitted;
+    }
+
+    // A killed flow never takes the admission it waits for, so it must not be given a permit.
+    private void dropKilledWaiters() {
+        for (ArrayDeque<Waiter> waiters : queues.values()) {
+            waiters.removeIf(waiter -> {
+                if (!waiter.flow.isKilled()) {
+                    return false;
+                }
+                queued--;
+                waiter.flowClass.queued--;
+                return true;
+            });
+        }
+    }
+
+    // Takes back the permits of killed flows that did not release them and of flows that outstayed the lease.
+    private void reclaimPermits(long now) {
+        permits.values().removeIf(permit -> {
+            final boolean expired = now - permit.admittedAt > maxHoldNanos;
+            if (!expired && !permit.flow.isKilled()) {
+                return false;
+            }
+            logger.warn("Reclaiming the admission permit of {} flow {}, {}.", permit.flowClass.name,
+                    permit.flow.getRunId().getUuid(), expired ? "held for longer than the lease" : "killed");
+            running--;
+            permit.flowClass.running--;
+            reclaimedCount.increment();
+            return true;
+        });
+    }
+
+    private static Waiter firstAdmissible(ArrayDeque<Waiter> waiters) {
+        for (Waiter waiter : waiters) {
+            if (waiter.flowClass.running < waiter.flowClass.maxConcurrent) {
+                return waiter;
+            }
+        }
+        return null;
+    }
+
+    private final class FlowClass {
+        final String name;
+        final int maxConcurrent;
+        final Priority priority;
+        int running = 0;
+        int queued = 0;
+        double holdMillis = 0;
+
+        FlowClass(String name, Priority defaultPriority) {
+            final String maxConcurrentKey = FLOW_CONFIG_PREFIX + name + ".maxConcurrent";
+            final String priorityKey = FLOW_CONFIG_PREFIX + name + ".priority";
+            this.name = name;
+            this.maxConcurrent = config.exists(maxConcurrentKey) ? config.getInt(maxConcurrentKey) : Integer.MAX_VALUE;
+            this.priority = config.exists(priorityKey) ? Priority.valueOf(config.getString(priorityKey)) : defaultPriority;
+        }
+
+        void recordHoldTime(long nanos) {
+            final double millis = nanos / 1_000_000.0;
+            holdMillis = holdMillis == 0 ? millis : holdMillis + HOLD_TIME_SMOOTHING * (millis - holdMillis);
+        }
+
+        // Roughly how long until the flows queued for this class have been admitted and have run.
+        long retryAfterMillis() {
+            final int slots = Math.max(1, Math.min(maxConcurrent, AdmissionControlService.this.maxConcurrent));
+            final double rounds = 1 + (double) queued / slots;
+            return Math.max(MIN_RETRY_AFTER_MILLIS, (long) (holdMillis * rounds));
+        }
+    }
+
+    private static final class Permit {
+        final FlowLogic<?> flow;
+        final FlowClass flowClass;
+        final long admittedAt;
+        // Sub-flows of the admitted flow that were admitted on its permit, plus one.
+        int depth = 1;
+
+        Permit(FlowLogic<?> flow, FlowClass flowClass, long admittedAt) {
+            this.flow = flow;
+            this.flowClass = flowClass;
+            this.admittedAt = admittedAt;
+        }
+    }
+
+    private final class Waiter {
+        final FlowLogic<?> flow;
+        final FlowClass flowClass;
+        final Priority priority;
+        final long sequence;
+        final long enqueuedAt;
+        final CompletableFuture<Void> future;
+
+        Waiter(FlowLogic<?> flow, FlowClass flowClass, long sequence, long enqueuedAt, CompletableFuture<Void> future) {
+            this.flow = flow;
+            this.flowClass = flowClass;
+            this.priority = flowClass.priority;
+            this.sequence = sequence;
+            this.enqueuedAt = enqueuedAt;
+            this.future = future;
+        }
+
+        // The priority level, counting HIGH as 0, less one for every aging interval waited; lower goes first.
+        long rank(long now) {
+            return agingNanos <= 0 ? priority.ordinal() : priority.ordinal() - (now - enqueuedAt) / agingNanos;
+        }
+    }
+
+    // A named class rather than a lambda so that the flow can be checkpointed while it waits for admission.
+    private static final class Admission implements FlowExternalAsyncOperation<Void> {
+
+        private final AdmissionControlService admissionControl;
+        private final FlowLogic<?> flow;
+        private final String flowName;
+        private final Priority priority;
+
+        private Admission(AdmissionControlService admissionControl, FlowLogic<?> flow, String flowName,
+                          Priority priority) {
+            this.admissionControl = admissionControl;
+            this.flow = flow;
+            this.flowName = flowName;
+            this.priority = priority;
+        }
+
+        @Override
+        public CompletableFuture<Void> execute(String deduplicationId) {
+            return admissionControl.enqueue(flow, flowName, priority);
+        }
+    }
+
+    private final class Metrics implements AdmissionControlMXBean {
+        @Override public long getAdmitted() { return admittedCount.sum(); }
+        @Override public long getRejected() { return rejectedCount.sum(); }
+        @Override public long getReclaimed() { return reclaimedCount.sum(); }
+        @Override public int getMaxConcurrent() { return maxConcurrent; }
+        @Override public int getMaxQueued() { return maxQueued; }
+
+        @Override
+        public int getRunning() {
+            synchronized (AdmissionControlService.this) {
+                return running;
+            }
+        }
+
+        @Override
+        public int getQueueDepth() {
+            synchronized (AdmissionControlService.this) {
+                return queued;
+            }
+        }
+
+        @Override
+        public Map<String, Integer> getRunningByFlow() {
+            final Map<String, Integer> byFlow = new TreeMap<>();
+            synchronized (AdmissionControlService.this) {
+                flowClasses.values().forEach(flowClass -> byFlow.put(flowClass.name, flowClass.running));
+            }
+            return byFlow;
+        }
+
+        @Override
+        public Map<String, Integer> getQueueDepthByFlow() {
+            final Map<String, Integer> byFlow = new TreeMap<>();
+            synchronized (AdmissionControlService.this) {
+                flowClasses.values().forEach(flowClass -> byFlow.put(flowClass.name, flowClass.queued));
+            }
+            return byFlow;
+        }
+    }
+}
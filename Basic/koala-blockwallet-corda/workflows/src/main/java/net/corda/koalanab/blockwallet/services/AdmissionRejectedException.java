@@ -0,0 +1,21 @@
+package net.corda.koalanab.blockwallet.services;
+
+import net.corda.core.flows.FlowException;
+
+/**
+ * Thrown by a flow that [AdmissionControlService] turned away because its wait queue was full. The flow did nothing
+ * yet; the client should start it again after [getRetryAfterMillis].
+ */
+public class AdmissionRejectedException extends FlowException {
+
+    private final long retryAfterMillis;
+
+    public AdmissionRejectedException(String flowName, long retryAfterMillis) {
+        super(flowName + " is over capacity, retry after " + retryAfterMillis + " ms.");
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,6 @@
+package net.corda.koalanab.blockwallet.services;
+
+/**
+ * The family of schemas for the node-local client request deduplication table.
+ */
+public class ClientRequestSchema { }
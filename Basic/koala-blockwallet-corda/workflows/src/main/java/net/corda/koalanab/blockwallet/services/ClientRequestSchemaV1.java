@@ -0,0 +1,79 @@
+package net.corda.koalanab.blockwallet.services;
+
+import net.corda.core.schemas.MappedSchema;
+
+import javax.annotation.Nullable;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * The client request table. It maps the request ids clients submit flows with to the flow that claimed each request,
+ * the fingerprint of its parameters and, once the flow has finalised it, the transaction it produced;
+ * [ClientRequestService] reads and writes it and purges rows older than its TTL.
+ */
+public class ClientRequestSchemaV1 extends MappedSchema {
+    public ClientRequestSchemaV1() {
+        super(ClientRequestSchema.class, 1, Arrays.asList(PersistentClientRequest.class));
+    }
+
+    @Nullable
+    @Override
+    public String getMigrationResource() {
+        return "client-request.changelog-master";
+    }
+
+    @Entity
+    @Table(name = "client_requests")
+    public static class PersistentClientRequest {
+        @Id @Column(name = "request_key") private String requestKey;
+        @Column(name = "flow_run_id", length = 36) private String flowRunId;
+        @Column(name = "parameters_hash", length = 64) private String parametersHash;
+        @Column(name = "transaction_id", length = 64) private String transactionId;
+        @Column(name = "recorded_at") private Instant recordedAt;
+
+        public PersistentClientRequest(
+                String requestKey, String flowRunId, String parametersHash, String transactionId, Instant recordedAt) {
+            this.requestKey = requestKey;
+            this.flowRunId = flowRunId;
+            this.parametersHash = parametersHash;
+            this.transactionId = transactionId;
+            this.recordedAt = recordedAt;
+        }
+
+        // Default constructor required by hibernate.
+        public PersistentClientRequest() {
+            this.requestKey = null;
+            this.flowRunId = null;
+            this.parametersHash = null;
+            this.transactionId = null;
+            this.recordedAt = null;
+        }
+
+        /** The initiating flow's class name and the client's request id. */
+        public String getRequestKey() {
+            return requestKey;
+        }
+
+        /** The run id of the flow that claimed the request. */
+        public String getFlowRunId() {
+            return flowRunId;
+        }
+
+        public String getParametersHash() {
+            return parametersHash;
+        }
+
+        /** Null while the flow that claimed the request is still running. */
+        public String getTransactionId() {
+            return transactionId;
+        }
+
+        public Instant getRecordedAt() {
+            return recordedAt;
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package net.corda.koalanab.blockwallet.services;
+
+import net.corda.core.cordapp.CordappConfig;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowExternalOperation;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.ServiceLifecycleEvent;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.koalanab.blockwallet.services.ClientRequestSchemaV1.PersistentClientRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaDelete;
+import javax.persistence.criteria.Root;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Deduplicates flow submissions by the request id the client sends along with them.
+ *
+ * An initiator given a client request id calls [begin] before doing anything else, with the [fingerprint] of its
+ * parameters. [begin] claims the id by writing a pending row to the client_requests table in the flow's own database
+ * transaction, so the claim is checkpointed with the flow and survives a restart of the node. A later submission with
+ * the same id then finds that row:
+ *
+ * - if the first submission finalised its transaction, the duplicate gets that transaction back, as is;
+ * - if the first submission is still running, possibly restored from a checkpoint, the duplicate is rejected so the
+ *   client can retry it once the first one has finished;
+ * - if the parameters differ from the first submission's, the duplicate is rejected, whatever state the first is in.
+ *
+ * The initiator either [complete]s the request with the transaction it finalised or awaits [release] if it fails.
+ * Release frees the id only if nothing was notarised: a flow that failed after FinalityFlow recorded its transaction,
+ * e.g. while sending it to the counterparty, completes the request with it instead, so that a retry does not create a
+ * second transaction. Release runs as an external operation because the failing flow's own database transaction is
+ * rolled back.
+ *
+ * Completed requests are kept in the client_requests table for clientRequests.ttlHours (24) hours, and cached in
+ * memory, up to the clientRequests.maxCached (10000) most recently used ones. A pending request is a lease that lasts
+ * clientRequests.pendingLeaseMinutes (60) minutes: a flow that was killed, or is stuck in the flow hospital, neither
+ * completes nor releases its request, so once the lease has expired a resubmission takes the request over instead of
+ * being rejected for good. The lease must therefore outlast any flow that is still making progress; if that flow
+ * completes after all, its transaction becomes the request's outcome, and a release leaves the new claim alone.
+ */
+@CordaService
+public class ClientRequestService extends SingletonSerializeAsToken {
+
+    static final String TTL_CONFIG = "clientRequests.ttlHours";
+    static final String MAX_CACHED_CONFIG = "clientRequests.maxCached";
+    static final String PENDING_LEASE_CONFIG = "clientRequests.pendingLeaseMinutes";
+    static final int MAX_REQUEST_ID_LENGTH = 128;
+
+    private static final Logger logger = LoggerFactory.getLogger(ClientRequestService.class);
+
+    private final AppServiceHub serviceHub;
+    private final Duration ttl;
+    private final Duration pendingLease;
+    // Claims whose pending row may not be committed yet, by key; the row covers them once the flow checkpoints.
+    private final ConcurrentHashMap<String, Claim> claiming = new ConcurrentHashMap<>();
+    // Completed requests only. Guarded by this. In access order, so the eldest entry is the least recently used one.
+    private final LinkedHashMap<String, PersistentClientRequest> recent;
+
+    public ClientRequestService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+        final CordappConfig config = serviceHub.getAppContext().getConfig();
+        this.ttl = Duration.ofHours(config.exists(TTL_CONFIG) ? config.getLong(TTL_CONFIG) : 24L);
+        this.pendingLease = Duration.ofMinutes(
+                config.exists(PENDING_LEASE_CONFIG) ? config.getLong(PENDING_LEASE_CONFIG) : 60L);
+        final int maxCached = config.exists(MAX_CACHED_CONFIG) ? config.getInt(MAX_CACHED_CONFIG) : 10_000;
+        this.recent = new LinkedHashMap<String, PersistentClientRequest>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PersistentClientRequest> eldest) {
+                return size() > maxCached;
+            }
+        };
+        serviceHub.register(AppServiceHub.SERVICE_PRIORITY_NORMAL, event -> {
+            if (event == ServiceLifecycleEvent.STATE_MACHINE_STARTED) {
+                purgeExpired();
+            }
+        });
+    }
+
+    /**
+     * The fingerprint of a submission's parameters, which a resubmission under the same request id must match.
+     */
+    public static SecureHash fingerprint(Object... parameters) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (Object parameter : parameters) {
+            // Length-prefixed, so that ("ab", "c") and ("a", "bc") differ.
+            final byte[] value = String.valueOf(parameter).getBytes(StandardCharsets.UTF_8);
+            bytes.write(parameter == null ? -1 : 0);
+            bytes.write(ByteBuffer.allocate(Integer.BYTES).putInt(value.length).array(), 0, Integer.BYTES);
+            bytes.write(value, 0, value.length);
+        }
+        return SecureHash.sha256(bytes.toByteArray());
+    }
+
+    /**
+     * Claims a client request id for the flow. Returns the transaction of the earlier submission with this id, or null
+     * if there is none and the flow should go ahead; the flow must then [complete] or [release] the id.
+     */
+    public SignedTransaction begin(FlowLogic<?> flow, String clientRequestId, SecureHash parameters) throws FlowException {
+        if (clientRequestId.length() > MAX_REQUEST_ID_LENGTH) {
+            throw new FlowException("Client request ids are at most " + MAX_REQUEST_ID_LENGTH + " characters long.");
+        }
+        final String key = key(flow, clientRequestId);
+        final String flowRunId = flow.getRunId().getUuid().toString();
+        final Instant now = Instant.now();
+        final Claim claim = new Claim(flowRunId, now);
+        final Claim earlier = claiming.putIfAbsent(key, claim);
+        // A claim whose flow died before committing its pending row is taken over once its lease has expired.
+        if (earlier != null && !(isLeaseExpired(earlier.claimedAt, now) && claiming.replace(key, earlier, claim))) {
+            throw new FlowException("Request " + clientRequestId + " is still being processed, retry it later.");
+        }
+        try {
+            final PersistentClientRequest request = find(key, now);
+            if (request != null) {
+                if (!request.getParametersHash().equals(parameters.toString())) {
+                    throw new FlowException("Request " + clientRequestId + " was already submitted with other parameters.");
+                }
+                if (request.getTransactionId() == null) {
+                    throw new FlowException("Request " + clientRequestId + " is still being processed by flow "
+                            + request.getFlowRunId() + ", retry it later.");
+                }
+                unclaim(key, flowRunId);
+                return serviceHub.getValidatedTransactions().getTransaction(SecureHash.parse(request.getTransactionId()));
+            }
+            // An expired row for the same key may still be there, so merge rather than persist.
+            final PersistentClientRequest pending = new PersistentClientRequest(
+                    key, flowRunId, parameters.toString(), null, now);
+            serviceHub.withEntityManager(entityManager -> {
+                entityManager.merge(pending);
+            });
+            return null;
+        } catch (FlowException | RuntimeException e) {
+            unclaim(key, flowRunId);
+            throw e;
+        }
+    }
+
+    /**
+     * Records the transaction the flow finalised for the request, in the flow's database transaction.
+     */
+    public void complete(FlowLogic<?> flow, String clientRequestId, SecureHash transactionId) {
+        final String key = key(flow, clientRequestId);
+        final PersistentClientRequest request = serviceHub.withEntityManager(entityManager -> {
+            final PersistentClientRequest pending = entityManager.find(PersistentClientRequest.class, key);
+            // The pending row is only missing if its lease expired and it was purged.
+            return pending == null ? null : entityManager.merge(completed(pending, transactionId));
+        });
+        if (request == null) {
+            logger.warn("{} completed with {} after its lease had expired and was purged.", key, transactionId);
+            unclaim(key, flow.getRunId().getUuid().toString());
+            return;
+        }
+        // Cached before the claim is dropped: a duplicate must find the request even before the flow's database
+        // transaction commits.
+        synchronized (this) {
+            recent.put(key, request);
+        }
+        unclaim(key, flow.getRunId().getUuid().toString());
+    }
+
+    /**
+     * The operation a failed flow awaits to give up its request. transactionId is the transaction the flow signed, if
+     * it got that far: if FinalityFlow recorded it, the request is completed with it rather than released.
+     */
+    public FlowExternalOperation<Void> release(FlowLogic<?> flow, String clientRequestId, SecureHash transactionId) {
+        return new Release(this, key(flow, clientRequestId), flow.getRunId().getUuid().toString(), transactionId);
+    }
+
+    private void release(String key, String flowRunId, SecureHash transactionId) {
+        final boolean notarised = transactionId != null
+                && serviceHub.getValidatedTransactions().getTransaction(transactionId) != null;
+        serviceHub.withEntityManager(entityManager -> {
+            final PersistentClientRequest request = entityManager.find(PersistentClientRequest.class, key);
+            if (request == null) {
+                // The flow failed before its claim was committed.
+                return;
+            }
+            if (notarised) {
+                entityManager.merge(completed(request, transactionId));
+            } else if (request.getTransactionId() == null && request.getFlowRunId().equals(flowRunId)) {
+                // Otherwise the lease expired and another flow has taken the request over, or completed it.
+                entityManager.remove(request);
+            }
+        });
+        if (notarised) {
+            logger.warn("{} failed after its transaction {} was notarised; keeping it as the request's outcome.", key, transactionId);
+        }
+        unclaim(key, flowRunId);
+    }
+
+    // Drops the flow's in-memory claim, unless another flow has taken the request over since.
+    private void unclaim(String key, String flowRunId) {
+        claiming.computeIfPresent(key, (k, claim) -> claim.flowRunId.equals(flowRunId) ? null : claim);
+    }
+
+    private boolean isLeaseExpired(Instant claimedAt, Instant now) {
+        return claimedAt.isBefore(now.minus(pendingLease));
+    }
+
+    private static PersistentClientRequest completed(PersistentClientRequest pending, SecureHash transactionId) {
+        return new PersistentClientRequest(pending.getRequestKey(), pending.getFlowRunId(), pending.getParametersHash(),
+                transactionId.toString(), Instant.now());
+    }
+
+    // The request with the key, pending within its lease or completed within the TTL, or null.
+    private PersistentClientRequest find(String key, Instant now) {
+        PersistentClientRequest request;
+        synchronized (this) {
+            request = recent.get(key);
+        }
+        if (request == null) {
+            request = serviceHub.withEntityManager(entityManager -> {
+                return entityManager.find(PersistentClientRequest.class, key);
+            });
+            if (request == null) return null;
+            if (request.getTransactionId() != null) {
+                synchronized (this) {
+                    recent.put(key, request);
+                }
+            }
+        }
+        if (request.getTransactionId() == null) {
+            if (isLeaseExpired(request.getRecordedAt(), now)) {
+                logger.warn("{} was left pending by flow {} since {}; its lease has expired.",
+                        key, request.getFlowRunId(), request.getRecordedAt());
+                return null;
+            }
+        } else if (request.getRecordedAt().isBefore(now.minus(ttl))) {
+            return null;
+        }
+        return request;
+    }
+
+    private void purgeExpired() {
+        final Instant now = Instant.now();
+        final int purged = serviceHub.withEntityManager(entityManager -> {
+            final CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+            final CriteriaDelete<PersistentClientRequest> delete = criteriaBuilder.createCriteriaDelete(PersistentClientRequest.class);
+            final Root<PersistentClientRequest> request = delete.from(PersistentClientRequest.class);
+            delete.where(criteriaBuilder.or(
+                    criteriaBuilder.and(criteriaBuilder.isNotNull(request.get("transactionId")),
+                            criteriaBuilder.lessThan(request.<Instant>get("recordedAt"), now.minus(ttl))),
+                    criteriaBuilder.and(criteriaBuilder.isNull(request.get("transactionId")),
+                            criteriaBuilder.lessThan(request.<Instant>get("recordedAt"), now.minus(pendingLease)))));
+            return entityManager.createQuery(delete).executeUpdate();
+        });
+        logger.info("Purged {} expired client requests.", purged);
+    }
+
+    private static String key(FlowLogic<?> flow, String clientRequestId) {
+        return flow.getClass().getName() + ":" + clientRequestId;
+    }
+
+    // A named class rather than a lambda so that the flow can be checkpointed while it waits for the release.
+    private static final class Release implements FlowExternalOperation<Void> {
+
+        private final ClientRequestService clientRequests;
+        private final String key;
+        private final String flowRunId;
+        private final SecureHash transactionId;
+
+        private Release(ClientRequestService clientRequests, String key, String flowRunId, SecureHash transactionId) {
+            this.clientRequests = clientRequests;
+            this.key = key;
+            this.flowRunId = flowRunId;
+            this.transactionId = transactionId;
+        }
+
+        @Override
+        public Void execute(String deduplicationId) {
+            clientRequests.release(key, flowRunId, transactionId);
+            return null;
+        }
+    }
+
+    private static final class Claim {
+        private final String flowRunId;
+        private final Instant claimedAt;
+
+        private Claim(String flowRunId, Instant claimedAt) {
+            this.flowRunId = flowRunId;
+            this.claimedAt = claimedAt;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package net.corda.koalanab.blockwallet.services;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A source of borrowers' credit scores, such as a credit bureau.
+ *
+ * Implementations must not block the calling thread: the returned future is completed once the score arrives. They
+ * need a public no-argument constructor and are selected with creditScore.provider in the CorDapp config, see
+ * [CreditScoreService]. There is no default provider.
+ */
+public interface CreditScoreProvider {
+
+    /**
+     * Looks up the credit score of a wallet account's owner, identified by their KYC.
+     */
+    CompletableFuture<String> fetchScore(long walletAccountId, UUID kycId);
+}
@@ -0,0 +1,121 @@
+package net.corda.koalanab.blockwallet.services;
+
+import net.corda.core.cordapp.CordappConfig;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Credit scores for loan approval, fetched from a [CreditScoreProvider] and cached for a while.
+ *
+ * The provider is the class named by creditScore.provider in the CorDapp config, or [StubCreditScoreProvider] when it
+ * is set to "stub". Without a provider the service fails closed: every score request fails, so loans are only decided
+ * with a score given by the caller.
+ * Scores are cached per wallet account for creditScore.ttlSeconds (five minutes by default), and concurrent requests
+ * for the same account share one provider call.
+ */
+@CordaService
+public class CreditScoreService extends SingletonSerializeAsToken {
+
+    static final String PROVIDER_CONFIG = "creditScore.provider";
+    static final String STUB_PROVIDER = "stub";
+    static final String TTL_CONFIG = "creditScore.ttlSeconds";
+    static final long DEFAULT_TTL_SECONDS = 300;
+    // Above this many entries, expired ones are purged on the next insert.
+    private static final int PURGE_THRESHOLD = 10_000;
+
+    private static final Logger logger = LoggerFactory.getLogger(CreditScoreService.class);
+
+    private final CreditScoreProvider provider;
+    private final long ttlNanos;
+    private final ConcurrentHashMap<Long, CachedScore> scores = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, CompletableFuture<String>> pending = new ConcurrentHashMap<>();
+
+    public CreditScoreService(AppServiceHub serviceHub) {
+        final CordappConfig config = serviceHub.getAppContext().getConfig();
+        this.provider = config.exists(PROVIDER_CONFIG) ? provider(config.getString(PROVIDER_CONFIG)) : null;
+        this.ttlNanos = Duration.ofSeconds(config.exists(TTL_CONFIG) ? config.getLong(TTL_CONFIG) : DEFAULT_TTL_SECONDS).toNanos();
+        if (provider == null) {
+            logger.warn("No credit score provider is configured ({}), loans can only be decided with a given score.", PROVIDER_CONFIG);
+        } else {
+            logger.info("Credit scores come from {}, cached for {} s.", provider.getClass().getName(), ttlNanos / 1_000_000_000L);
+        }
+    }
+
+    /**
+     * Returns the credit score of a wallet account's owner. The future is already complete when the score is cached, and
+     * fails with an [IllegalStateException] when no provider is configured.
+     */
+    public CompletableFuture<String> getScore(long walletAccountId, UUID kycId) {
+        if (provider == null) {
+            final CompletableFuture<String> refused = new CompletableFuture<>();
+            refused.completeExceptionally(new IllegalStateException(
+                    "No credit score provider is configured, set " + PROVIDER_CONFIG + " or give the score explicitly."));
+            return refused;
+        }
+        final CachedScore cached = scores.get(walletAccountId);
+        if (cached != null && !cached.isExpired(System.nanoTime())) {
+            return CompletableFuture.completedFuture(cached.score);
+        }
+        final CompletableFuture<String> fetch = new CompletableFuture<>();
+        final CompletableFuture<String> inFlight = pending.putIfAbsent(walletAccountId, fetch);
+        if (inFlight != null) {
+            return inFlight;
+        }
+        try {
+            provider.fetchScore(walletAccountId, kycId).whenComplete((score, error) -> {
+                if (error == null && score != null) {
+                    cache(walletAccountId, score);
+                }
+                pending.remove(walletAccountId, fetch);
+                if (error == null) fetch.complete(score);
+                else fetch.completeExceptionally(error);
+            });
+        } catch (RuntimeException e) {
+            pending.remove(walletAccountId, fetch);
+            fetch.completeExceptionally(e);
+        }
+        return fetch;
+    }
+
+    private void cache(long walletAccountId, String score) {
+        final long now = System.nanoTime();
+        if (scores.size() >= PURGE_THRESHOLD) {
+            scores.values().removeIf(entry -> entry.isExpired(now));
+        }
+        scores.put(walletAccountId, new CachedScore(score, now + ttlNanos));
+    }
+
+    private static CreditScoreProvider provider(String name) {
+        return STUB_PROVIDER.equals(name) ? new StubCreditScoreProvider() : instantiate(name);
+    }
+
+    private static CreditScoreProvider instantiate(String className) {
+        try {
+            return Class.forName(className).asSubclass(CreditScoreProvider.class).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException("Cannot use " + className + " as the credit score provider.", e);
+        }
+    }
+
+    private static final class CachedScore {
+        private final String score;
+        private final long expiresAt;
+
+        private CachedScore(String score, long expiresAt) {
+            this.score = score;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package net.corda.koalanab.blockwallet.services;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of one flow class.
+ */
+class FlowMetrics implements FlowMetricsMXBean {
+
+    private final LongAdder started = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LatencyHistogram duration = new LatencyHistogram();
+    private final ConcurrentHashMap<String, LatencyHistogram> steps = new ConcurrentHashMap<>();
+
+    void started() {
+        started.increment();
+    }
+
+    void finished(long nanos, boolean succeeded) {
+        (succeeded ? completed : failed).increment();
+        duration.record(nanos);
+    }
+
+    void conflict(boolean retrying) {
+        conflicts.increment();
+        if (retrying) {
+            retries.increment();
+        }
+    }
+
+    void step(String label, long nanos) {
+        steps.computeIfAbsent(label, l -> new LatencyHistogram()).record(nanos);
+    }
+
+    @Override public long getStarted() { return started.sum(); }
+    @Override public long getCompleted() { return completed.sum(); }
+    @Override public long getFailed() { return failed.sum(); }
+    @Override public long getConflicts() { return conflicts.sum(); }
+    @Override public long getRetries() { return retries.sum(); }
+    @Override public long getInFlight() { return getStarted() - getCompleted() - getFailed(); }
+    @Override public LatencyHistogram.Snapshot getDuration() { return duration.snapshot(); }
+
+    @Override
+    public Map<String, LatencyHistogram.Snapshot> getStepLatencies() {
+        final Map<String, LatencyHistogram.Snapshot> snapshots = new TreeMap<>();
+        steps.forEach((label, histogram) -> snapshots.put(label, histogram.snapshot()));
+        return snapshots;
+    }
+}
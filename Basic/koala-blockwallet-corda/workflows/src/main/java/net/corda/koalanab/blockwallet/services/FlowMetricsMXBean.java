@@ -0,0 +1,26 @@
+package net.corda.koalanab.blockwallet.services;
+
+import java.util.Map;
+
+/**
+ * JMX view of one flow class, registered by [FlowMetricsService] as
+ * net.corda.koalanab.blockwallet:type=FlowMetrics,node=...,name=....
+ */
+public interface FlowMetricsMXBean {
+    long getStarted();
+    long getCompleted();
+    long getFailed();
+    long getInFlight();
+
+    /** Times the flow found the state it was spending locked or already spent by another transaction. */
+    long getConflicts();
+
+    /** Conflicts after which the flow tried again on the latest version of the state. */
+    long getRetries();
+
+    /** End-to-end latency of the flows that finished, successfully or not. */
+    LatencyHistogram.Snapshot getDuration();
+
+    /** Time spent in each top-level ProgressTracker step, keyed by step label. */
+    Map<String, LatencyHistogram.Snapshot> getStepLatencies();
+}
@@ -0,0 +1,142 @@
+package net.corda.koalanab.blockwallet.services;
+
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import net.corda.core.utilities.ProgressTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-flow-class counters (started, completed, failed, conflicts, retries) and latency histograms, for the whole flow and for each of its
+ * top-level ProgressTracker steps, exported as one MXBean per flow class.
+ *
+ * Initiators opt in by extending MeteredFlowLogic, which calls [track] at the start of call(). The step timings come
+ * from the flow's own progress tracker, so GATHERING_SIGS shows the counterparty's signing time and
+ * FINALISING_TRANSACTION the notary's. The tracking lives in memory only: a flow restored from a checkpoint after a
+ * restart counts as started but never as completed or failed, and its remaining steps are not timed.
+ */
+@CordaService
+public class FlowMetricsService extends SingletonSerializeAsToken {
+
+    static final String JMX_DOMAIN = "net.corda.koalanab.blockwallet";
+
+    private static final Logger logger = LoggerFactory.getLogger(FlowMetricsService.class);
+
+    private final AppServiceHub serviceHub;
+    private final ConcurrentHashMap<Class<?>, FlowMetrics> metricsByFlow = new ConcurrentHashMap<>();
+
+    public FlowMetricsService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+    }
+
+    /**
+     * Starts timing a flow from its progress tracker. The flow counts as completed once the tracker reaches DONE and
+     * as failed if it ends with an error.
+     */
+    public void track(FlowLogic<?> flow, ProgressTracker progressTracker) {
+        final FlowMetrics metrics = metricsByFlow.computeIfAbsent(flow.getClass(), this::register);
+        metrics.started();
+        final FlowTimer timer = new FlowTimer(metrics, progressTracker, System.nanoTime());
+        progressTracker.getChanges().subscribe(timer::onChange, timer::onError, timer::onCompleted);
+    }
+
+    /**
+     * Counts a flow running into a concurrent update of the state it was spending, and whether it retries.
+     */
+    public void conflict(FlowLogic<?> flow, boolean retrying) {
+        metricsByFlow.computeIfAbsent(flow.getClass(), this::register).conflict(retrying);
+    }
+
+    private FlowMetrics register(Class<?> flowClass) {
+        final FlowMetrics metrics = new FlowMetrics();
+        try {
+            // Several nodes can share a JVM (MockNetwork, driver), so the node's name is part of the object name.
+            final ObjectName name = objectName("FlowMetrics", serviceHub, flowClass.getName()
+                    .substring(flowClass.getPackage().getName().length() + 1));
+            registerMBean(name, new StandardMBean(metrics, FlowMetricsMXBean.class, true));
+        } catch (JMException e) {
+            logger.warn("Could not register the flow metrics of " + flowClass.getName() + " with JMX.", e);
+        }
+        return metrics;
+    }
+
+    static ObjectName objectName(String type, AppServiceHub serviceHub, String name) throws JMException {
+        return new ObjectName(JMX_DOMAIN + ":type=" + type
+                + ",node=" + ObjectName.quote(serviceHub.getMyInfo().getLegalIdentities().get(0).getName().toString())
+                + ",name=" + ObjectName.quote(name));
+    }
+
+    // A node restarted within the same JVM finds its previous beans still registered; replace them.
+    static void registerMBean(ObjectName name, Object mbean) throws JMException {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(mbean, name);
+        } catch (InstanceAlreadyExistsException e) {
+            server.unregisterMBean(name);
+            server.registerMBean(mbean, name);
+        }
+    }
+
+    private static final class FlowTimer {
+        private final FlowMetrics metrics;
+        private final ProgressTracker progressTracker;
+        private final long start;
+        private ProgressTracker.Step step;
+        private long stepStart;
+        private boolean finished;
+
+        private FlowTimer(FlowMetrics metrics, ProgressTracker progressTracker, long start) {
+            this.metrics = metrics;
+            this.progressTracker = progressTracker;
+            this.start = start;
+        }
+
+        synchronized void onChange(ProgressTracker.Change change) {
+            // Child trackers report through the parent's feed as well; only our own steps are timed.
+            if (finished || !(change instanceof ProgressTracker.Change.Position) || change.getProgressTracker() != progressTracker) {
+                return;
+            }
+            final long now = System.nanoTime();
+            final ProgressTracker.Step newStep = ((ProgressTracker.Change.Position) change).getNewStep();
+            if (newStep == ProgressTracker.DONE.INSTANCE) {
+                finish(now, true);
+            } else {
+                endStep(now);
+                step = newStep;
+                stepStart = now;
+            }
+        }
+
+        synchronized void onError(Throwable error) {
+            finish(System.nanoTime(), false);
+        }
+
+        synchronized void onCompleted() {
+            finish(System.nanoTime(), true);
+        }
+
+        private void finish(long now, boolean succeeded) {
+            if (finished) return;
+            finished = true;
+            endStep(now);
+            metrics.finished(now - start, succeeded);
+        }
+
+        private void endStep(long now) {
+            if (step != null) {
+                metrics.step(step.getLabel(), now - stepStart);
+                step = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package net.corda.koalanab.blockwallet.services;
+
+import net.corda.core.schemas.MappedSchema;
+
+import javax.annotation.Nullable;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * The KYC document table. It holds the off-ledger KYC records anchored by [KYCState.payloadHash], keyed by that hash
+ * and stored compressed; [KYCDocumentService] reads and writes it.
+ */
+public class KYCDocumentSchemaV1 extends MappedSchema {
+    public KYCDocumentSchemaV1() {
+        super(KYCDocumentSchema.class, 1, Arrays.asList(PersistentKYCDocument.class));
+    }
+
+    @Nullable
+    @Override
+    public String getMigrationResource() {
+        return "kyc-document.changelog-master";
+    }
+
+    @Entity
+    @Table(name = "kyc_documents")
+    public static class PersistentKYCDocument {
+        @Id @Column(name = "payload_hash", length = 64) private String payloadHash;
+        @Column(name = "account_id") private long accountId;
+        @Lob @Column(name = "payload") private byte[] payload;
+        @Column(name = "stored_at") private Instant storedAt;
+
+        public PersistentKYCDocument(String payloadHash, long accountId, byte[] payload, Instant storedAt) {
+            this.payloadHash = payloadHash;
+            this.accountId = accountId;
+            this.payload = payload;
+            this.storedAt = storedAt;
+        }
+
+        // Default constructor required by hibernate.
+        public PersistentKYCDocument() {
+            this.payloadHash = null;
+            this.accountId = 0;
+            this.payload = null;
+            this.storedAt = null;
+        }
+
+        public String getPayloadHash() {
+            return payloadHash;
+        }
+
+        public long getAccountId() {
+            return accountId;
+        }
+
+        /** The GZIP-compressed canonical bytes of the record. */
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        public Instant getStoredAt() {
+            return storedAt;
+        }
+    }
+}
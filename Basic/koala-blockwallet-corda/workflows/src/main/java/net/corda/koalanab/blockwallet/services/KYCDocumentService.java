@@ -0,0 +1,89 @@
+package net.corda.koalanab.blockwallet.services;
+
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import net.corda.koalanab.blockwallet.services.KYCDocumentSchemaV1.PersistentKYCDocument;
+import net.corda.koalanab.blockwallet.states.KYCRecord;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Node-local store of the off-ledger KYC records, keyed by the hash a [KYCState] anchors them with.
+ *
+ * Records are stored GZIP-compressed in the kyc_documents table and never leave the node except over the flow session
+ * of the KYC request, so they are protected by the node database's own access control and encryption at rest.
+ */
+@CordaService
+public class KYCDocumentService extends SingletonSerializeAsToken {
+
+    private final AppServiceHub serviceHub;
+
+    public KYCDocumentService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+    }
+
+    /**
+     * Stores a record and returns its hash. Storing the same record again is a no-op.
+     */
+    public SecureHash store(KYCRecord record) {
+        final byte[] canonical = record.canonicalBytes();
+        final SecureHash hash = SecureHash.sha256(canonical);
+        serviceHub.withEntityManager(entityManager -> {
+            if (entityManager.find(PersistentKYCDocument.class, hash.toString()) == null) {
+                entityManager.persist(new PersistentKYCDocument(
+                        hash.toString(), record.getAccountId(), compress(canonical), Instant.now()));
+            }
+        });
+        return hash;
+    }
+
+    /**
+     * Returns the record anchored by the given hash, or null if this node does not hold it. The stored bytes are
+     * checked against the hash, so a record that was tampered with in the database is never returned.
+     */
+    public KYCRecord load(SecureHash payloadHash) {
+        final PersistentKYCDocument document = serviceHub.withEntityManager(entityManager -> {
+            return entityManager.find(PersistentKYCDocument.class, payloadHash.toString());
+        });
+        if (document == null) return null;
+
+        final byte[] canonical = decompress(document.getPayload());
+        if (!SecureHash.sha256(canonical).equals(payloadHash)) {
+            throw new IllegalStateException("The stored KYC record does not match its hash " + payloadHash);
+        }
+        return KYCRecord.fromCanonicalBytes(canonical);
+    }
+
+    private static byte[] compress(byte[] bytes) {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length);
+        try (OutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static byte[] decompress(byte[] bytes) {
+        final ByteArrayOutputStream decompressed = new ByteArrayOutputStream(bytes.length * 2);
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            final byte[] buffer = new byte[1024];
+            for (int read; (read = in.read(buffer)) != -1; ) {
+                decompressed.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return decompressed.toByteArray();
+    }
+}
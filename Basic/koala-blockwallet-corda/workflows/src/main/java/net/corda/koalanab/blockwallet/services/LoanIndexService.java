@@ -0,0 +1,159 @@
+package net.corda.koalanab.blockwallet.services;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.messaging.DataFeed;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.ServiceLifecycleEvent;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+import net.corda.core.node.services.vault.SortAttribute;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import net.corda.koalanab.blockwallet.states.LoanState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory index of the current (unconsumed) version of every loan, keyed by loan linear id and by wallet account.
+ *
+ * The index is warmed up page by page from the vault once the node's state machine has started, on a thread of its
+ * own so that a large vault does not hold up the node's start, and is kept current from the vault's LoanState update
+ * feed. Lookups are O(1) and never touch the database, but only answer for every loan once [isReady].
+ */
+@CordaService
+public class LoanIndexService extends SingletonSerializeAsToken {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoanIndexService.class);
+    private static final int WARM_UP_PAGE_SIZE = 1000;
+
+    private final AppServiceHub serviceHub;
+
+    private final ConcurrentHashMap<UUID, StateAndRef<LoanState>> byLinearId = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Set<UUID>> byWalletAccountId = new ConcurrentHashMap<>();
+    // States consumed while the warm-up is still paging; a page read before the consumption must not bring them back.
+    private final Set<StateRef> consumedDuringWarmUp = ConcurrentHashMap.newKeySet();
+    private volatile boolean ready = false;
+
+    public LoanIndexService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+        serviceHub.register(AppServiceHub.SERVICE_PRIORITY_NORMAL, event -> {
+            if (event == ServiceLifecycleEvent.STATE_MACHINE_STARTED) {
+                final Thread warmUp = new Thread(this::warmUp, "loan-index-warm-up");
+                warmUp.setDaemon(true);
+                warmUp.start();
+            }
+        });
+    }
+
+    /**
+     * Whether the warm-up has finished. Until then lookups may miss loans, and callers should fall back to the vault.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Returns the current version of the loan, or null if the loan is unknown or already fully consumed.
+     */
+    public StateAndRef<LoanState> get(UUID loanId) {
+        return byLinearId.get(loanId);
+    }
+
+    /**
+     * Returns the current version of every loan of a wallet account.
+     */
+    public List<StateAndRef<LoanState>> getByWalletAccountId(long walletAccountId) {
+        final Set<UUID> loanIds = byWalletAccountId.get(walletAccountId);
+        if (loanIds == null) {
+            return Collections.emptyList();
+        }
+        final List<StateAndRef<LoanState>> loans = new ArrayList<>(loanIds.size());
+        for (UUID loanId : loanIds) {
+            final StateAndRef<LoanState> loan = byLinearId.get(loanId);
+            if (loan != null) loans.add(loan);
+        }
+        return loans;
+    }
+
+    private void warmUp() {
+        try {
+            loadAll();
+        } catch (RuntimeException e) {
+            // Lookups keep falling back to the vault.
+            logger.error("Loan index failed to warm up.", e);
+        }
+    }
+
+    private void loadAll() {
+        // Paging over ALL states ordered by recorded time: rows are only ever appended to this order, so states
+        // consumed or recorded while we page cannot shift a live loan past a page boundary.
+        final QueryCriteria allLoans = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.ALL);
+        final Sort byRecordedTime = new Sort(ImmutableList.of(
+                new Sort.SortColumn(new SortAttribute.Standard(Sort.VaultStateAttribute.RECORDED_TIME), Sort.Direction.ASC),
+                new Sort.SortColumn(new SortAttribute.Standard(Sort.VaultStateAttribute.STATE_REF_TXN_ID), Sort.Direction.ASC),
+                new Sort.SortColumn(new SortAttribute.Standard(Sort.VaultStateAttribute.STATE_REF_INDEX), Sort.Direction.ASC)));
+
+        // Subscribe before reading the pages so that nothing recorded in between is missed.
+        final DataFeed<Vault.Page<LoanState>, Vault.Update<LoanState>> feed = serviceHub.getVaultService()
+                .trackBy(LoanState.class, allLoans, new PageSpecification(1, WARM_UP_PAGE_SIZE), byRecordedTime);
+        feed.getUpdates().subscribe(this::apply, error -> logger.error("Loan index lost the vault update feed.", error));
+
+        Vault.Page<LoanState> page = feed.getSnapshot();
+        for (int pageNumber = 2; load(page) == WARM_UP_PAGE_SIZE; pageNumber++) {
+            page = serviceHub.getVaultService().queryBy(
+                    LoanState.class, allLoans, new PageSpecification(pageNumber, WARM_UP_PAGE_SIZE), byRecordedTime);
+        }
+
+        ready = true;
+        consumedDuringWarmUp.clear();
+        logger.info("Loan index warmed up with {} loans.", byLinearId.size());
+    }
+
+    private int load(Vault.Page<LoanState> page) {
+        final List<StateAndRef<LoanState>> loans = page.getStates();
+        for (int i = 0; i < loans.size(); i++) {
+            final StateAndRef<LoanState> loan = loans.get(i);
+            if (page.getStatesMetadata().get(i).getStatus() == Vault.StateStatus.UNCONSUMED
+                    && !consumedDuringWarmUp.contains(loan.getRef())) {
+                byLinearId.putIfAbsent(loan.getState().getData().getLinearId().getId(), loan);
+                indexWallet(loan);
+            }
+        }
+        return loans.size();
+    }
+
+    private void apply(Vault.Update<LoanState> update) {
+        for (StateAndRef<LoanState> consumed : update.getConsumed()) {
+            if (!ready) consumedDuringWarmUp.add(consumed.getRef());
+            final LoanState loan = consumed.getState().getData();
+            final UUID loanId = loan.getLinearId().getId();
+            final StateAndRef<LoanState> remaining = byLinearId.computeIfPresent(loanId,
+                    (id, current) -> current.getRef().equals(consumed.getRef()) ? null : current);
+            if (remaining == null) {
+                final Set<UUID> walletLoans = byWalletAccountId.get(loan.getWalletAccountId());
+                if (walletLoans != null) walletLoans.remove(loanId);
+            }
+        }
+        for (StateAndRef<LoanState> produced : update.getProduced()) {
+            byLinearId.put(produced.getState().getData().getLinearId().getId(), produced);
+            indexWallet(produced);
+        }
+    }
+
+    private void indexWallet(StateAndRef<LoanState> loan) {
+        final LoanState state = loan.getState().getData();
+        byWalletAccountId.computeIfAbsent(state.getWalletAccountId(), id -> ConcurrentHashMap.newKeySet())
+                .add(state.getLinearId().getId());
+    }
+}
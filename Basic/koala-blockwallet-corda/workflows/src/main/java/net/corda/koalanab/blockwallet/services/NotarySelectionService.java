@@ -0,0 +1,154 @@
+package net.corda.koalanab.blockwallet.services;
+
+import net.corda.core.contracts.ContractState;
+import net.corda.core.cordapp.CordappConfig;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.ServiceLifecycleEvent;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chooses the notary of new transactions from a cached notary list, spreading them over every notary of the network.
+ *
+ * The list is read from the network map once and refreshed whenever the network map changes, so picking a notary
+ * costs no network map lookup. The policy is set by notary.policy in the CorDapp config:
+ *
+ * - ROUND_ROBIN (the default) cycles through the notaries;
+ * - LEAST_LATENCY spreads transactions over the notaries whose recent finality latency is within
+ *   notary.latencyTolerance (1.5) times the lowest one, trying unmeasured notaries first. One selection in
+ *   PROBE_INTERVAL goes to the next notary in turn whatever its latency, so that a notary that was slow once is
+ *   measured again rather than never picked.
+ *
+ * Either way, a state type can be pinned to one notary with notary.pinned.&lt;state class simple name&gt; set to the
+ * notary's X.500 name, e.g. notary.pinned.CashInState = "O=Notary,L=London,C=GB". Only the states of new cash-ins and
+ * KYCs are placed through [select]; loans follow the notary of the KYC they reference.
+ *
+ * Only transactions without inputs or reference states are free to choose; the others must use the notary of the
+ * states they spend. Every flow reports its FinalityFlow latency through [recordFinality], whichever notary it used.
+ */
+@CordaService
+public class NotarySelectionService extends SingletonSerializeAsToken {
+
+    public enum Policy {
+        ROUND_ROBIN,
+        LEAST_LATENCY
+    }
+
+    static final String POLICY_CONFIG = "notary.policy";
+    static final String PINNED_CONFIG_PREFIX = "notary.pinned.";
+    static final String LATENCY_TOLERANCE_CONFIG = "notary.latencyTolerance";
+    static final int PROBE_INTERVAL = 20;
+    // Weight of the newest sample in the moving average of a notary's latency.
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    private static final Logger logger = LoggerFactory.getLogger(NotarySelectionService.class);
+
+    private final AppServiceHub serviceHub;
+    private final CordappConfig config;
+    private final Policy policy;
+    private final double latencyTolerance;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ConcurrentHashMap<Party, Double> latencyMillis = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Class<?>, Optional<Party>> pinned = new ConcurrentHashMap<>();
+    private volatile List<Party> notaries = null;
+
+    public NotarySelectionService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+        this.config = serviceHub.getAppContext().getConfig();
+        this.policy = config.exists(POLICY_CONFIG) ? Policy.valueOf(config.getString(POLICY_CONFIG)) : Policy.ROUND_ROBIN;
+        // Below 1 not even the fastest notary would qualify.
+        this.latencyTolerance = Math.max(1.0, config.exists(LATENCY_TOLERANCE_CONFIG) ? config.getDouble(LATENCY_TOLERANCE_CONFIG) : 1.5);
+        serviceHub.register(AppServiceHub.SERVICE_PRIORITY_NORMAL, event -> {
+            if (event == ServiceLifecycleEvent.STATE_MACHINE_STARTED) {
+                serviceHub.getNetworkMapCache().track().getUpdates().subscribe(
+                        change -> refresh(),
+                        error -> logger.error("Notary selection lost the network map feed.", error));
+                refresh();
+            }
+        });
+    }
+
+    /**
+     * Returns the notary for a new transaction whose outputs are of the given state type.
+     */
+    public Party select(Class<? extends ContractState> stateType) {
+        final Optional<Party> pinnedNotary = pinned.computeIfAbsent(stateType, this::readPin);
+        if (pinnedNotary.isPresent()) {
+            return pinnedNotary.get();
+        }
+
+        final List<Party> candidates = notaries();
+        if (candidates.isEmpty()) {
+            throw new IllegalStateException("There is no notary on the network.");
+        }
+        final int turn = next.getAndIncrement();
+        if (policy == Policy.LEAST_LATENCY) {
+            if (Math.floorMod(turn, PROBE_INTERVAL) == 0) {
+                // Probes take the notaries in turn, whatever their latency.
+                return candidates.get(Math.floorMod(Math.floorDiv(turn, PROBE_INTERVAL), candidates.size()));
+            }
+            double fastestMillis = Double.MAX_VALUE;
+            for (Party notary : candidates) {
+                fastestMillis = Math.min(fastestMillis, latencyMillis.getOrDefault(notary, 0.0));
+            }
+            final List<Party> fast = new ArrayList<>(candidates.size());
+            for (Party notary : candidates) {
+                if (latencyMillis.getOrDefault(notary, 0.0) <= fastestMillis * latencyTolerance) {
+                    fast.add(notary);
+                }
+            }
+            return fast.get(Math.floorMod(turn, fast.size()));
+        }
+        return candidates.get(Math.floorMod(turn, candidates.size()));
+    }
+
+    /**
+     * Records how long a FinalityFlow took with the given notary, measured from startNanos (System.nanoTime()).
+     */
+    public void recordFinality(Party notary, long startNanos) {
+        final long nanos = System.nanoTime() - startNanos;
+        // A flow restored from a checkpoint after a restart carries a start time from another JVM; ignore it.
+        if (nanos <= 0 || nanos > 3_600_000_000_000L) {
+            return;
+        }
+        final double millis = nanos / 1_000_000.0;
+        latencyMillis.merge(notary, millis, (average, sample) -> average + LATENCY_SMOOTHING * (sample - average));
+    }
+
+    private List<Party> notaries() {
+        final List<Party> current = notaries;
+        return current != null ? current : refresh();
+    }
+
+    private List<Party> refresh() {
+        final List<Party> current = Collections.unmodifiableList(serviceHub.getNetworkMapCache().getNotaryIdentities());
+        notaries = current;
+        latencyMillis.keySet().retainAll(current);
+        pinned.clear();
+        return current;
+    }
+
+    private Optional<Party> readPin(Class<?> stateType) {
+        final String key = PINNED_CONFIG_PREFIX + stateType.getSimpleName();
+        if (!config.exists(key)) {
+            return Optional.empty();
+        }
+        final Party notary = serviceHub.getNetworkMapCache().getNotary(CordaX500Name.parse(config.getString(key)));
+        if (notary == null) {
+            logger.warn("{} is pinned to {}, which is not a notary on the network; not pinning it.", stateType.getSimpleName(), config.getString(key));
+            return Optional.empty();
+        }
+        return Optional.of(notary);
+    }
+}
@@ -0,0 +1,25 @@
+package net.corda.koalanab.blockwallet.services;
+
+/**
+ * JMX view of the [QueryCacheService], registered as
+ * net.corda.koalanab.blockwallet:type=QueryCache,node=...,name="QueryCache".
+ */
+public interface QueryCacheMXBean {
+    long getHits();
+    long getMisses();
+
+    /** Entries dropped to stay within the maximum weight, least recently used first. */
+    long getEvictions();
+
+    /** Entries dropped because a vault update touched their account. */
+    long getInvalidations();
+
+    int getSize();
+
+    /** The number of states the entries hold. */
+    long getWeight();
+    int getMaxWeight();
+
+    /** Hits over all lookups; zero before the first lookup. */
+    double getHitRatio();
+}
@@ -0,0 +1,56 @@
+package net.corda.koalanab.blockwallet.services;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters of the [QueryCacheService].
+ */
+class QueryCacheMetrics implements QueryCacheMXBean {
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final IntSupplier size;
+    private final LongSupplier weight;
+    private final int maxWeight;
+
+    QueryCacheMetrics(IntSupplier size, LongSupplier weight, int maxWeight) {
+        this.size = size;
+        this.weight = weight;
+        this.maxWeight = maxWeight;
+    }
+
+    void hit() {
+        hits.increment();
+    }
+
+    void miss() {
+        misses.increment();
+    }
+
+    void evicted() {
+        evictions.increment();
+    }
+
+    void invalidated(int entries) {
+        invalidations.add(entries);
+    }
+
+    @Override public long getHits() { return hits.sum(); }
+    @Override public long getMisses() { return misses.sum(); }
+    @Override public long getEvictions() { return evictions.sum(); }
+    @Override public long getInvalidations() { return invalidations.sum(); }
+    @Override public int getSize() { return size.getAsInt(); }
+    @Override public long getWeight() { return weight.getAsLong(); }
+    @Override public int getMaxWeight() { return maxWeight; }
+
+    @Override
+    public double getHitRatio() {
+        final long hits = getHits();
+        final long lookups = hits + getMisses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+}
@@ -0,0 +1,284 @@
+package net.corda.koalanab.blockwallet.services;
+
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.cordapp.CordappConfig;
+import net.corda.core.flows.FlowException;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.Vault;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import net.corda.koalanab.blockwallet.states.CashInState;
+import net.corda.koalanab.blockwallet.states.KYCState;
+import net.corda.koalanab.blockwallet.states.LoanState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.StandardMBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+
+/**
+ * A bounded, least-recently-used cache of query flow results, keyed by the account the query is about.
+ *
+ * Reads go through [get], which answers from the cache or runs the query and caches its result. Every vault update
+ * drops exactly the entries of the accounts it touched, plus the entries that span all accounts of the same kind,
+ * before the flow that recorded it returns; a client therefore always reads its own writes.
+ *
+ * The cache is bounded by weight rather than by entries, since a page of states costs up to a page size times as
+ * much memory as a single state: an entry weighs as many states as it holds, as told by the weigher passed to [get],
+ * and the cache holds at most queryCache.maxWeight (10000) states in total. Hits, misses, evictions and invalidations
+ * are exported over JMX.
+ */
+@CordaService
+public class QueryCacheService extends SingletonSerializeAsToken {
+
+    /**
+     * What a cached query is about, and so which vault updates invalidate it.
+     */
+    public enum Region {
+        /** Loans of a wallet account; keyed by walletAccountId. */
+        LOANS_BY_WALLET,
+        /** Cash-ins of a wallet account; keyed by walletAccount. */
+        CASH_INS_BY_WALLET,
+        /** Cash-ins of an affiliate account; keyed by affiliateAccount. */
+        CASH_INS_BY_AFFILIATE,
+        /** KYCs of an account; keyed by accountId. */
+        KYCS_BY_ACCOUNT
+    }
+
+    @FunctionalInterface
+    public interface Loader<T> {
+        T load() throws FlowException;
+    }
+
+    static final String MAX_WEIGHT_CONFIG = "queryCache.maxWeight";
+    static final int DEFAULT_MAX_WEIGHT = 10_000;
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryCacheService.class);
+
+    private final int maxWeight;
+    private final QueryCacheMetrics metrics;
+    // Guarded by this. In access order, so the eldest entry is the least recently used one.
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Scope, Set<Key>> keysByScope = new HashMap<>();
+    // The sum of the weights of the entries. Guarded by this.
+    private long weight = 0;
+    // Bumped by every invalidation; a query that overlapped one may have read the old data and is not cached.
+    private long generation = 0;
+    // Without the vault feed nothing could be invalidated, so every query goes to the vault.
+    private volatile boolean enabled = true;
+
+    public QueryCacheService(AppServiceHub serviceHub) {
+        final CordappConfig config = serviceHub.getAppContext().getConfig();
+        this.maxWeight = config.exists(MAX_WEIGHT_CONFIG) ? config.getInt(MAX_WEIGHT_CONFIG) : DEFAULT_MAX_WEIGHT;
+        this.metrics = new QueryCacheMetrics(this::size, this::weight, maxWeight);
+
+        try {
+            FlowMetricsService.registerMBean(FlowMetricsService.objectName("QueryCache", serviceHub, "QueryCache"),
+                    new StandardMBean(metrics, QueryCacheMXBean.class, true));
+        } catch (JMException e) {
+            logger.warn("Could not register the query cache metrics with JMX.", e);
+        }
+
+        // Subscribed from the start, and invalidating on the recording thread, so no entry outlives the data it was
+        // read from.
+        serviceHub.getVaultService().getUpdates().subscribe(this::invalidate,
+                error -> {
+                    logger.error("Query cache lost the vault update feed; turning it off.", error);
+                    enabled = false;
+                    clear();
+                });
+    }
+
+    /**
+     * Returns the cached result of a query that yields a single state, or runs it and caches the result.
+     */
+    public <T> T get(Region region, String account, List<?> query, Loader<T> loader) throws FlowException {
+        return get(region, account, query, loader, value -> 1);
+    }
+
+    /**
+     * Returns the cached result of a query, or runs it and caches the result.
+     *
+     * @param account the account the query is about, or null if it spans all accounts of the region.
+     * @param query the query's name and parameters; two queries with equal lists share an entry.
+     * @param weigher the number of states a result holds, at least one.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(Region region, String account, List<?> query, Loader<T> loader, ToIntFunction<? super T> weigher)
+            throws FlowException {
+        if (!enabled) {
+            return loader.load();
+        }
+        final Key key = new Key(new Scope(region, account), query);
+        final long generationAtLoad;
+        synchronized (this) {
+            final Entry cached = entries.get(key);
+            if (cached != null) {
+                metrics.hit();
+                return (T) cached.value;
+            }
+            generationAtLoad = generation;
+        }
+        metrics.miss();
+
+        final T value = loader.load();
+        if (value != null) {
+            final int valueWeight = Math.max(1, weigher.applyAsInt(value));
+            synchronized (this) {
+                // A result heavier than the whole cache would only flush it.
+                if (generation == generationAtLoad && valueWeight <= maxWeight) {
+                    put(key, new Entry(value, valueWeight));
+                }
+            }
+        }
+        return value;
+    }
+
+    public synchronized void clear() {
+        metrics.invalidated(entries.size());
+        generation++;
+        entries.clear();
+        keysByScope.clear();
+        weight = 0;
+    }
+
+    private synchronized int size() {
+        return entries.size();
+    }
+
+    private synchronized long weight() {
+        return weight;
+    }
+
+    // Called holding this.
+    private void put(Key key, Entry entry) {
+        final Entry replaced = entries.put(key, entry);
+        if (replaced != null) {
+            weight -= replaced.weight;
+        } else {
+            keysByScope.computeIfAbsent(key.scope, s -> new HashSet<>()).add(key);
+        }
+        weight += entry.weight;
+        // Evict least recently used first; the new entry is the most recently used one and fits on its own.
+        final Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+        while (weight > maxWeight) {
+            final Map.Entry<Key, Entry> evicted = eldest.next();
+            eldest.remove();
+            weight -= evicted.getValue().weight;
+            unindex(evicted.getKey());
+            metrics.evicted();
+        }
+    }
+
+    private void invalidate(Vault.Update<ContractState> update) {
+        final Set<Scope> touched = new HashSet<>();
+        final List<StateAndRef<ContractState>> changed = new ArrayList<>(update.getConsumed());
+        changed.addAll(update.getProduced());
+        for (StateAndRef<ContractState> stateAndRef : changed) {
+            final ContractState state = stateAndRef.getState().getData();
+            if (state instanceof LoanState) {
+                touched.add(new Scope(Region.LOANS_BY_WALLET, String.valueOf(((LoanState) state).getWalletAccountId())));
+            } else if (state instanceof CashInState) {
+                touched.add(new Scope(Region.CASH_INS_BY_WALLET, ((CashInState) state).getWalletAccount()));
+                touched.add(new Scope(Region.CASH_INS_BY_AFFILIATE, ((CashInState) state).getAffiliateAccount()));
+            } else if (state instanceof KYCState) {
+                touched.add(new Scope(Region.KYCS_BY_ACCOUNT, String.valueOf(((KYCState) state).getAccountId())));
+            }
+        }
+        if (touched.isEmpty()) return;
+
+        synchronized (this) {
+            generation++;
+            for (Scope scope : touched) {
+                remove(scope);
+                remove(new Scope(scope.region, null));
+            }
+        }
+    }
+
+    private void remove(Scope scope) {
+        final Set<Key> keys = keysByScope.remove(scope);
+        if (keys == null) return;
+        for (Key key : keys) {
+            final Entry removed = entries.remove(key);
+            if (removed != null) {
+                weight -= removed.weight;
+            }
+        }
+        metrics.invalidated(keys.size());
+    }
+
+    private void unindex(Key key) {
+        final Set<Key> keys = keysByScope.get(key.scope);
+        if (keys != null && keys.remove(key) && keys.isEmpty()) {
+            keysByScope.remove(key.scope);
+        }
+    }
+
+    private static final class Entry {
+        private final Object value;
+        private final int weight;
+
+        private Entry(Object value, int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private static final class Scope {
+        private final Region region;
+        private final String account;
+
+        private Scope(Region region, String account) {
+            this.region = region;
+            this.account = account;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Scope)) return false;
+            final Scope other = (Scope) o;
+            return region == other.region && Objects.equals(account, other.account);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(region, account);
+        }
+    }
+
+    private static final class Key {
+        private final Scope scope;
+        private final List<?> query;
+
+        private Key(Scope scope, List<?> query) {
+            this.scope = scope;
+            this.query = query;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            final Key other = (Key) o;
+            return scope.equals(other.scope) && query.equals(other.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(scope, query);
+        }
+    }
+}
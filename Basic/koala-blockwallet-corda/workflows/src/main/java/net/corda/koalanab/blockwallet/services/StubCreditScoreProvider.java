@@ -0,0 +1,30 @@
+package net.corda.koalanab.blockwallet.services;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A local stand-in for a credit bureau, for development and load tests. Every wallet account always gets the same
+ * score between 300 and 850, after a simulated bureau latency. Selected with creditScore.provider = "stub".
+ */
+public class StubCreditScoreProvider implements CreditScoreProvider {
+
+    static final long LATENCY_MILLIS = 200;
+
+    private static final ScheduledExecutorService bureau = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "stub-credit-bureau");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Override
+    public CompletableFuture<String> fetchScore(long walletAccountId, UUID kycId) {
+        final CompletableFuture<String> score = new CompletableFuture<>();
+        bureau.schedule(() -> score.complete(String.valueOf(300 + Math.floorMod(Long.hashCode(walletAccountId), 551))),
+                LATENCY_MILLIS, TimeUnit.MILLISECONDS);
+        return score;
+    }
+}
@@ -0,0 +1,66 @@
+package net.corda.koalanab.blockwallet.services;
+
+import net.corda.core.schemas.MappedSchema;
+
+import javax.annotation.Nullable;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * The wallet balance projection table. It is not backed by any state: [WalletBalanceService] maintains one row per
+ * wallet account from vault updates.
+ */
+public class WalletBalanceSchemaV1 extends MappedSchema {
+    public WalletBalanceSchemaV1() {
+        super(WalletBalanceSchema.class, 1, Arrays.asList(PersistentWalletBalance.class));
+    }
+
+    @Nullable
+    @Override
+    public String getMigrationResource() {
+        return "wallet-balance.changelog-master";
+    }
+
+    @Entity
+    @Table(name = "wallet_balances")
+    public static class PersistentWalletBalance {
+        @Id @Column(name = "wallet_account") private String walletAccount;
+        @Column(name = "balance") private long balance;
+        @Column(name = "updated_at") private Instant updatedAt;
+
+        public PersistentWalletBalance(String walletAccount, long balance, Instant updatedAt) {
+            this.walletAccount = walletAccount;
+            this.balance = balance;
+            this.updatedAt = updatedAt;
+        }
+
+        // Default constructor required by hibernate.
+        public PersistentWalletBalance() {
+            this.walletAccount = null;
+            this.balance = 0;
+            this.updatedAt = null;
+        }
+
+        public String getWalletAccount() {
+            return walletAccount;
+        }
+
+        /** The balance in minor units. */
+        public long getBalance() {
+            return balance;
+        }
+
+        public Instant getUpdatedAt() {
+            return updatedAt;
+        }
+
+        public void add(long delta, Instant when) {
+            this.balance += delta;
+            this.updatedAt = when;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package net.corda.koalanab.blockwallet.services;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.ServiceLifecycleEvent;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+import net.corda.core.node.services.vault.SortAttribute;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import net.corda.koalanab.blockwallet.services.WalletBalanceSchemaV1.PersistentWalletBalance;
+import net.corda.koalanab.blockwallet.states.CashInState;
+import net.corda.koalanab.blockwallet.states.LoanState;
+import net.corda.koalanab.blockwallet.states.LoanStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.persistence.criteria.CriteriaDelete;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+
+/**
+ * Maintains the wallet_balances projection: one row per wallet account holding its balance in minor units.
+ *
+ * A wallet's balance is the sum of its cash-ins plus the amount of its approved loans that are not paid yet. The rows
+ * are updated incrementally from the vault's raw updates, on the recording thread and in the database transaction that
+ * records the states, so a delta commits or rolls back with them and none is lost to a crash. Reading a balance is a
+ * single-row lookup. Two transactions creating the row of the same new wallet collide on its primary key; the node's
+ * flow hospital retries the loser, which then finds the row.
+ *
+ * [rebuild] recomputes every row from the vault in a single database transaction, and can be run at any time. Legacy
+ * states whose free-text amount is not a valid amount are left out of every balance.
+ */
+@CordaService
+public class WalletBalanceService extends SingletonSerializeAsToken {
+
+    static final int REBUILD_PAGE_SIZE = 1_000;
+
+    private static final Sort BY_STATE_REF = new Sort(ImmutableList.of(
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.VaultStateAttribute.STATE_REF_TXN_ID), Sort.Direction.ASC),
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.VaultStateAttribute.STATE_REF_INDEX), Sort.Direction.ASC)));
+
+    private static final Logger logger = LoggerFactory.getLogger(WalletBalanceService.class);
+
+    private final AppServiceHub serviceHub;
+
+    public WalletBalanceService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+        serviceHub.register(AppServiceHub.SERVICE_PRIORITY_NORMAL, event -> {
+            if (event == ServiceLifecycleEvent.STATE_MACHINE_STARTED) {
+                serviceHub.getVaultService().getRawUpdates().subscribe(this::apply,
+                        error -> logger.error("Wallet balance projection lost the vault update feed.", error));
+            }
+        });
+    }
+
+    /**
+     * Returns the balance of a wallet account in minor units; zero for an unknown account.
+     */
+    public long getBalance(String walletAccount) {
+        final PersistentWalletBalance row = serviceHub.withEntityManager(entityManager -> {
+            return entityManager.find(PersistentWalletBalance.class, walletAccount);
+        });
+        return row == null ? 0L : row.getBalance();
+    }
+
+    /**
+     * Recomputes every wallet balance from the vault, replacing the current rows. Running it twice gives the same
+     * result, so it is safe to retry.
+     *
+     * The balances are summed over the unconsumed cash-ins and loans themselves, page by page, so a wallet's balance
+     * includes states recorded before the projection existed. Run it once after upgrading a node that holds such
+     * states: a legacy loan paid afterwards is subtracted from its wallet, so its approval must have been counted.
+     *
+     * The rows are deleted before the vault is summed, in the same transaction: deleting waits for the transactions
+     * that have applied a delta to a row but not committed yet, so their states are in the sums and not counted twice.
+     *
+     * @return the number of wallet accounts that have a balance.
+     */
+    public synchronized int rebuild() {
+        final Map<String, Long> balances = new HashMap<>();
+        serviceHub.withEntityManager(entityManager -> {
+            final CriteriaDelete<PersistentWalletBalance> deleteAll =
+                    entityManager.getCriteriaBuilder().createCriteriaDelete(PersistentWalletBalance.class);
+            deleteAll.from(PersistentWalletBalance.class);
+            entityManager.createQuery(deleteAll).executeUpdate();
+
+            sumBalances(balances);
+
+            final Instant now = Instant.now();
+            balances.forEach((walletAccount, balance) ->
+                    entityManager.persist(new PersistentWalletBalance(walletAccount, balance, now)));
+        });
+        logger.info("Rebuilt {} wallet balances.", balances.size());
+        return balances.size();
+    }
+
+    // The vault queries run in the caller's database transaction. The amounts are read from the states themselves, as
+    // [apply] reads them, so states recorded before the cash-in and loan schemas existed are counted too.
+    private void sumBalances(Map<String, Long> balances) {
+        forEachUnconsumed(CashInState.class, cashIn -> {
+            if (!cashIn.isAmountReadable()) {
+                logger.warn("Cash-in {} has an unreadable legacy amount, left out of the balances.",
+                        cashIn.getLinearId());
+            } else {
+                balances.merge(cashIn.getWalletAccount(), cashIn.getAmountInMinorUnits(), Long::sum);
+            }
+        });
+        forEachUnconsumed(LoanState.class, loan -> {
+            if (!loan.isAmountReadable()) {
+                logger.warn("Loan {} has an unreadable legacy amount, left out of the balances.",
+                        loan.getLinearId());
+            } else if (LoanStatus.of(loan) == LoanStatus.APPROVED) {
+                balances.merge(String.valueOf(loan.getWalletAccountId()), loan.getAmountInMinorUnits(), Long::sum);
+            }
+        });
+    }
+
+    private <T extends ContractState> void forEachUnconsumed(Class<T> stateType, Consumer<T> action) {
+        final QueryCriteria unconsumed = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED);
+        for (int pageNumber = DEFAULT_PAGE_NUM; ; pageNumber++) {
+            final List<StateAndRef<T>> page = serviceHub.getVaultService()
+                    .queryBy(stateType, unconsumed, new PageSpecification(pageNumber, REBUILD_PAGE_SIZE), BY_STATE_REF)
+                    .getStates();
+            page.forEach(state -> action.accept(state.getState().getData()));
+            if (page.size() < REBUILD_PAGE_SIZE) {
+                return;
+            }
+        }
+    }
+
+    // Runs on the thread recording the update, in its database transaction.
+    private void apply(Vault.Update<ContractState> update) {
+        final Map<String, Long> deltas = new HashMap<>();
+
+        final Map<UUID, LoanStatus> consumedLoans = new HashMap<>();
+        for (StateAndRef<ContractState> consumed : update.getConsumed()) {
+            if (consumed.getState().getData() instanceof LoanState) {
+                final LoanState loan = (LoanState) consumed.getState().getData();
+                consumedLoans.put(loan.getLinearId().getId(), LoanStatus.of(loan));
+            }
+        }
+
+        for (StateAndRef<ContractState> produced : update.getProduced()) {
+            final ContractState state = produced.getState().getData();
+            if (state instanceof CashInState) {
+                final CashInState cashIn = (CashInState) state;
+                deltas.merge(cashIn.getWalletAccount(), cashIn.getAmountInMinorUnits(), Long::sum);
+            } else if (state instanceof LoanState) {
+                final LoanState loan = (LoanState) state;
+                if (!loan.isAmountReadable()) {
+                    // Left out of the balances by [rebuild] as well, so neither its approval nor its payment counts.
+                    continue;
+                }
+                final LoanStatus before = consumedLoans.get(loan.getLinearId().getId());
+                final LoanStatus after = LoanStatus.of(loan);
+                final String walletAccount = String.valueOf(loan.getWalletAccountId());
+                if (before == LoanStatus.REQUESTED && after == LoanStatus.APPROVED) {
+                    deltas.merge(walletAccount, loan.getAmountInMinorUnits(), Long::sum);
+                } else if (before == LoanStatus.APPROVED && after == LoanStatus.PAID) {
+                    deltas.merge(walletAccount, -loan.getAmountInMinorUnits(), Long::sum);
+                }
+            }
+        }
+        if (deltas.isEmpty()) {
+            return;
+        }
+
+        final Instant now = Instant.now();
+        serviceHub.withEntityManager(entityManager -> {
+            deltas.forEach((walletAccount, delta) -> {
+                final PersistentWalletBalance row = entityManager.find(PersistentWalletBalance.class, walletAccount);
+                if (row == null) {
+                    entityManager.persist(new PersistentWalletBalance(walletAccount, delta, now));
+                } else {
+                    row.add(delta, now);
+                }
+            });
+        });
+    }
+}